@@ -0,0 +1,359 @@
+package autocomplete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ranked implementation of the {@link Autocomplete} interface that returns matches from the lowest rank to the highest.
+ * Terms are kept in sorted order so that the matches for any prefix form one contiguous range, and a sparse table over
+ * the ranks finds the best term in any range in constant time. The k best matches are then found by repeatedly
+ * splitting ranges around their best term, in time proportional to k log k rather than to the number of matches.
+ * Terms with equal rank are returned in sorted order.
+ *
+ * @see Autocomplete
+ */
+public class RankedAutocomplete implements Autocomplete {
+    /**
+     * The rank of each term, where lower ranks are returned first.
+     */
+    private final ToIntFunction<? super CharSequence> rank;
+    /**
+     * Sorted array of added autocompletion terms.
+     */
+    private CharSequence[] terms;
+    /**
+     * The rank of each term, indexed like the terms.
+     */
+    private int[] ranks;
+    /**
+     * The index of the best term in each range [i, i + 2^j), stored at {@code best[j][i]}.
+     */
+    private int[][] best;
+
+    /**
+     * Constructs an empty instance.
+     *
+     * @param rank the rank of each term, where lower ranks are returned first.
+     */
+    public RankedAutocomplete(ToIntFunction<? super CharSequence> rank) {
+        this.rank = rank;
+        this.terms = new CharSequence[0];
+        this.ranks = new int[0];
+        this.best = new int[0][];
+    }
+
+    @Override
+    public void addAll(Collection<? extends CharSequence> terms) {
+        if (this.terms.length == 0 && isSorted(terms)) {
+            // Terms that are already sorted and distinct, such as those read from a snapshot, are not sorted again.
+            this.terms = terms.toArray(new CharSequence[0]);
+        } else {
+            TreeSet<CharSequence> sorted = new TreeSet<>(CharSequence::compare);
+            sorted.addAll(Arrays.asList(this.terms));
+            sorted.addAll(terms);
+            this.terms = sorted.toArray(new CharSequence[0]);
+        }
+        int n = this.terms.length;
+        ranks = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            ranks[i] = rank.applyAsInt(this.terms[i]);
+        }
+
+        // Each level of the sparse table combines two adjacent ranges from the level below.
+        int levels = 32 - Integer.numberOfLeadingZeros(n);
+        best = new int[levels][];
+        if (levels > 0) {
+            best[0] = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                best[0][i] = i;
+            }
+        }
+        for (int j = 1; j < levels; j += 1) {
+            int half = 1 << (j - 1);
+            best[j] = new int[n - (1 << j) + 1];
+            for (int i = 0; i < best[j].length; i += 1) {
+                best[j][i] = better(best[j - 1][i], best[j - 1][i + half]);
+            }
+        }
+    }
+
+    @Override
+    public List<CharSequence> allMatches(CharSequence prefix) {
+        return topMatches(prefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to k autocompletion terms that match the given prefix, ordered from the lowest rank to the highest.
+     *
+     * @param prefix search query.
+     * @param k      the maximum number of terms to return.
+     * @return up to k matching terms with the lowest ranks.
+     */
+    public List<CharSequence> topMatches(CharSequence prefix, int k) {
+        List<CharSequence> result = new ArrayList<>();
+        if (prefix == null || prefix.length() == 0 || k <= 0) {
+            return result;
+        }
+        int lo = lowerBound(prefix);
+        int hi = upperBound(prefix, lo);
+        if (lo == hi) {
+            return result;
+        }
+
+        addTop(List.of(new int[]{lo, hi}), k, result);
+        return result;
+    }
+
+    /**
+     * Returns up to k autocompletion terms that begin with a string within the given edit distance of the prefix,
+     * ignoring case. Terms are ordered by their edit distance and then from the lowest rank to the highest.
+     * <p>
+     * The sorted terms form an implicit trie in which every trie node is a range of terms sharing a prefix, so the
+     * search walks the trie one character at a time while computing one row of the Levenshtein table per node, and
+     * stops descending once every entry in the row exceeds the distance. Each node within the distance matches its
+     * whole range, so the best terms at each distance are then found with the same range splitting as
+     * {@link #topMatches(CharSequence, int)}.
+     *
+     * @param prefix      search query.
+     * @param maxDistance the maximum number of inserted, deleted or substituted characters.
+     * @param k           the maximum number of terms to return.
+     * @return up to k terms with the smallest edit distances and then the lowest ranks.
+     */
+    public List<CharSequence> fuzzyMatches(CharSequence prefix, int maxDistance, int k) {
+        List<CharSequence> result = new ArrayList<>();
+        if (prefix == null || prefix.length() == 0 || k <= 0 || terms.length == 0 || maxDistance < 0) {
+            return result;
+        }
+        // The ranges of the topmost trie nodes within each distance, in sorted order.
+        List<List<int[]>> within = new ArrayList<>(maxDistance + 1);
+        for (int d = 0; d <= maxDistance; d += 1) {
+            within.add(new ArrayList<>());
+        }
+        // Below depth prefix.length() + maxDistance, every entry in the row exceeds the distance.
+        int[][] rows = new int[prefix.length() + maxDistance + 2][prefix.length() + 1];
+        for (int j = 0; j <= prefix.length(); j += 1) {
+            rows[0][j] = j;
+        }
+        walk(prefix, 0, terms.length, 0, rows, maxDistance + 1, within);
+
+        // Terms at exactly distance d are within d but not within d - 1, and each range within d - 1 lies inside a
+        // range within d.
+        for (int d = 0; d <= maxDistance && result.size() < k; d += 1) {
+            addTop(d == 0 ? within.get(0) : subtract(within.get(d), within.get(d - 1)), k, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of autocompletion terms that match the given prefix.
+     *
+     * @param prefix search query.
+     * @return the number of matching terms.
+     */
+    public int countMatches(CharSequence prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            return 0;
+        }
+        int lo = lowerBound(prefix);
+        return upperBound(prefix, lo) - lo;
+    }
+
+    /**
+     * Adds the best terms from the disjoint ranges, given as {@code {lo, hi}}, until the result has k terms.
+     */
+    private void addTop(List<int[]> ranges, int k, List<CharSequence> result) {
+        // Each range is stored as {lo, hi, best} and the range with the best term is split next.
+        PriorityQueue<int[]> pq = new PriorityQueue<>(
+                Comparator.<int[]>comparingInt(range -> ranks[range[2]]).thenComparingInt(range -> range[2])
+        );
+        for (int[] range : ranges) {
+            pq.add(new int[]{range[0], range[1], best(range[0], range[1])});
+        }
+        while (result.size() < k && !pq.isEmpty()) {
+            int[] range = pq.remove();
+            int i = range[2];
+            result.add(terms[i]);
+            if (range[0] < i) {
+                pq.add(new int[]{range[0], i, best(range[0], i)});
+            }
+            if (i + 1 < range[1]) {
+                pq.add(new int[]{i + 1, range[1], best(i + 1, range[1])});
+            }
+        }
+    }
+
+    /**
+     * Visits the trie node for the terms in [lo, hi), which share their first depth characters, given the Levenshtein
+     * row between the prefix and those characters in {@code rows[depth]}. The closest ancestor distance is the smallest
+     * distance between the prefix and any shorter shared prefix, so the node is recorded only for the distances it
+     * improves.
+     */
+    private void walk(CharSequence prefix, int lo, int hi, int depth, int[][] rows, int closest,
+                      List<List<int[]>> within) {
+        int[] row = rows[depth];
+        int distance = row[prefix.length()];
+        for (int d = distance; d < Math.min(closest, within.size()); d += 1) {
+            within.get(d).add(new int[]{lo, hi});
+        }
+        closest = Math.min(closest, distance);
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        if (min >= closest) {
+            // No longer shared prefix can be any closer.
+            return;
+        }
+        // At most one term ends at this node, and it sorts before the longer terms.
+        int start = terms[lo].length() == depth ? lo + 1 : lo;
+        while (start < hi) {
+            char c = terms[start].charAt(depth);
+            int end = childEnd(start, hi, depth, c);
+            int[] next = rows[depth + 1];
+            next[0] = row[0] + 1;
+            for (int j = 1; j < row.length; j += 1) {
+                int substitution = row[j - 1] + (equalsIgnoreCase(prefix.charAt(j - 1), c) ? 0 : 1);
+                next[j] = Math.min(substitution, Math.min(row[j], next[j - 1]) + 1);
+            }
+            walk(prefix, start, end, depth + 1, rows, closest, within);
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the index of the first term after the given start whose character at the depth is not c.
+     */
+    private int childEnd(int start, int hi, int depth, char c) {
+        int lo = start;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (terms[mid].charAt(depth) == c) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the parts of the sorted disjoint ranges that are not covered by the inner ranges, where each inner range
+     * lies inside one of the outer ranges.
+     */
+    private static List<int[]> subtract(List<int[]> outer, List<int[]> inner) {
+        List<int[]> result = new ArrayList<>();
+        int i = 0;
+        for (int[] range : outer) {
+            int lo = range[0];
+            while (i < inner.size() && inner.get(i)[1] <= range[1]) {
+                if (lo < inner.get(i)[0]) {
+                    result.add(new int[]{lo, inner.get(i)[0]});
+                }
+                lo = inner.get(i)[1];
+                i += 1;
+            }
+            if (lo < range[1]) {
+                result.add(new int[]{lo, range[1]});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the terms are in strictly increasing order.
+     */
+    private static boolean isSorted(Collection<? extends CharSequence> terms) {
+        CharSequence previous = null;
+        for (CharSequence term : terms) {
+            if (previous != null && CharSequence.compare(previous, term) >= 0) {
+                return false;
+            }
+            previous = term;
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+
+    /**
+     * Returns the index of the first term that is not less than the prefix.
+     */
+    private int lowerBound(CharSequence prefix) {
+        int lo = 0;
+        int hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (CharSequence.compare(terms[mid], prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first term after the given start that does not match the prefix.
+     */
+    private int upperBound(CharSequence prefix, int start) {
+        int lo = start;
+        int hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (isPrefixOf(prefix, terms[mid])) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the best term in the nonempty range [lo, hi).
+     */
+    private int best(int lo, int hi) {
+        int j = 31 - Integer.numberOfLeadingZeros(hi - lo);
+        return better(best[j][lo], best[j][hi - (1 << j)]);
+    }
+
+    /**
+     * Returns the index of the term with the lower rank, or the earlier index if the ranks are equal.
+     */
+    private int better(int i, int j) {
+        if (ranks[i] != ranks[j]) {
+            return ranks[i] < ranks[j] ? i : j;
+        }
+        return Math.min(i, j);
+    }
+
+    /**
+     * Returns true if and only if the given term matches the given prefix.
+     */
+    private static boolean isPrefixOf(CharSequence prefix, CharSequence term) {
+        if (prefix.length() > term.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i += 1) {
+            if (prefix.charAt(i) != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RankedAutocomplete{" +
+                "terms=" + terms.length +
+                '}';
+    }
+}
@@ -15,6 +15,7 @@ import java.util.zip.GZIPInputStream;
  * @see SequentialSearchAutocomplete
  * @see BinarySearchAutocomplete
  * @see TernarySearchTreeAutocomplete
+ * @see RankedAutocomplete
  */
 class CitiesMultiTest {
     /**
@@ -59,7 +60,8 @@ class CitiesMultiTest {
         Map<String, Autocomplete> implementations = Map.of(
                 "LinearSearchAutocomplete", new SequentialSearchAutocomplete(),
                 "BinarySearchAutocomplete", new BinarySearchAutocomplete(),
-                "TernarySearchTreeAutocomplete", new TernarySearchTreeAutocomplete()
+                "TernarySearchTreeAutocomplete", new TernarySearchTreeAutocomplete(),
+                "RankedAutocomplete", new RankedAutocomplete(CharSequence::length)
         );
         // Add cities to each testing implementation.
         for (Autocomplete autocomplete : implementations.values()) {
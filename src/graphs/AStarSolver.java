@@ -10,31 +10,67 @@ import java.util.*;
  *
  * @param <V> the type of vertices.
  * @see AStarGraph
+ * @see ReusableAStarSolver
  */
 public class AStarSolver<V> {
     private final Map<V, Edge<V>> edgeTo;
     private final Map<V, Double> distTo;
     private final V start;
     private final V goal;
+    private final int settledCount;
 
     /**
-     * Constructs a new instance by executing A* search on the graph from the start to the goal.
+     * Constructs a new instance by executing A* search on the graph from the start until the goal is settled.
      *
      * @param graph the input graph.
      * @param start the start vertex.
      * @param goal  the goal vertex.
      */
     public AStarSolver(AStarGraph<V> graph, V start, V goal) {
+        this(graph, start, goal, true);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the graph from the start to the goal.
+     *
+     * @param graph      the input graph.
+     * @param start      the start vertex.
+     * @param goal       the goal vertex.
+     * @param stopAtGoal true to stop once the goal is settled, false to settle every reachable vertex.
+     */
+    public AStarSolver(AStarGraph<V> graph, V start, V goal, boolean stopAtGoal) {
         this.edgeTo = new HashMap<>();
         this.distTo = new HashMap<>();
         this.start = start;
         this.goal = goal;
+        this.settledCount = search(graph, start, goal, stopAtGoal, edgeTo, distTo);
+    }
+
+    /**
+     * Executes A* search on the graph from the start to the goal, recording the shortest paths tree in the given maps.
+     *
+     * @param graph      the input graph.
+     * @param start      the start vertex.
+     * @param goal       the goal vertex.
+     * @param stopAtGoal true to stop once the goal is settled, false to settle every reachable vertex.
+     * @param edgeTo     the empty map to fill with the last edge on the best-known path to each vertex.
+     * @param distTo     the empty map to fill with the best-known distance to each vertex.
+     * @param <V>        the type of vertices.
+     * @return the number of vertices removed from the priority queue.
+     */
+    static <V> int search(AStarGraph<V> graph, V start, V goal, boolean stopAtGoal,
+                          Map<V, Edge<V>> edgeTo, Map<V, Double> distTo) {
         ExtrinsicMinPQ<V> pq = new DoubleMapMinPQ<>();
         pq.add(start, 0.0);
         edgeTo.put(start, null);
         distTo.put(start, 0.0);
+        int settled = 0;
         while (!pq.isEmpty()) {
             V from = pq.removeMin();
+            settled += 1;
+            if (stopAtGoal && from.equals(goal)) {
+                break;
+            }
             for (Edge<V> e : graph.neighbors(from)) {
                 V to = e.to;
                 double oldDist = distTo.getOrDefault(to, Double.POSITIVE_INFINITY);
@@ -51,6 +87,7 @@ public class AStarSolver<V> {
                 }
             }
         }
+        return settled;
     }
 
     /**
@@ -59,6 +96,27 @@ public class AStarSolver<V> {
      * @return a list of vertices representing the shortest path.
      */
     public List<V> solution() {
+        return path(edgeTo, goal);
+    }
+
+    /**
+     * Returns the number of vertices settled (removed from the priority queue) by the search.
+     *
+     * @return the number of vertices settled by the search.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Returns the path to the goal by following the given shortest paths tree back to its root.
+     *
+     * @param edgeTo the last edge on the shortest path to each vertex.
+     * @param goal   the goal vertex.
+     * @param <V>    the type of vertices.
+     * @return a list of vertices representing the shortest path.
+     */
+    static <V> List<V> path(Map<V, Edge<V>> edgeTo, V goal) {
         List<V> path = new ArrayList<>();
         V curr = goal;
         path.add(curr);
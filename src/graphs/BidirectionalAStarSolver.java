@@ -0,0 +1,170 @@
+package graphs;
+
+import minpq.DoubleMapMinPQ;
+import minpq.ExtrinsicMinPQ;
+
+import java.util.*;
+
+/**
+ * Bidirectional A* search implementation for single-pair shortest paths in an {@link AStarGraph}. One search grows
+ * forward from the start while the other grows backward from the goal over the reverse graph, both guided by the
+ * average of the forward and backward heuristics so that their reduced edge weights agree. A graph whose
+ * {@code estimatedDistance} is always 0 makes this bidirectional Dijkstra's algorithm.
+ *
+ * @param <V> the type of vertices.
+ * @see AStarGraph
+ * @see AStarSolver
+ */
+public class BidirectionalAStarSolver<V> {
+    private final Map<V, Edge<V>> forwardEdgeTo;
+    private final Map<V, Double> forwardDistTo;
+    private final Map<V, Edge<V>> backwardEdgeTo;
+    private final Map<V, Double> backwardDistTo;
+    private final AStarGraph<V> graph;
+    private final V start;
+    private final V goal;
+    private V meeting;
+    private double bestDistance;
+    private int settledCount;
+
+    /**
+     * Constructs a new instance by executing bidirectional A* search on an undirected graph: one where every edge has
+     * a reverse edge of the same weight.
+     *
+     * @param graph the input graph.
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     */
+    public BidirectionalAStarSolver(AStarGraph<V> graph, V start, V goal) {
+        this(graph, graph, start, goal);
+    }
+
+    /**
+     * Constructs a new instance by executing bidirectional A* search on the graph from the start to the goal.
+     *
+     * @param graph   the input graph.
+     * @param reverse the reverse graph: for each edge from u to v in the input graph, the reverse graph has an edge
+     *                from v to u with the same weight.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex.
+     */
+    public BidirectionalAStarSolver(AStarGraph<V> graph, Graph<V> reverse, V start, V goal) {
+        this.forwardEdgeTo = new HashMap<>();
+        this.forwardDistTo = new HashMap<>();
+        this.backwardEdgeTo = new HashMap<>();
+        this.backwardDistTo = new HashMap<>();
+        this.graph = graph;
+        this.start = start;
+        this.goal = goal;
+        this.bestDistance = Double.POSITIVE_INFINITY;
+
+        ExtrinsicMinPQ<V> forward = new DoubleMapMinPQ<>();
+        ExtrinsicMinPQ<V> backward = new DoubleMapMinPQ<>();
+        forward.add(start, potential(start));
+        forwardEdgeTo.put(start, null);
+        forwardDistTo.put(start, 0.0);
+        backward.add(goal, -potential(goal));
+        backwardEdgeTo.put(goal, null);
+        backwardDistTo.put(goal, 0.0);
+        if (start.equals(goal)) {
+            meeting = start;
+            bestDistance = 0.0;
+        }
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            V forwardMin = forward.peekMin();
+            V backwardMin = backward.peekMin();
+            double forwardKey = forwardDistTo.get(forwardMin) + potential(forwardMin);
+            double backwardKey = backwardDistTo.get(backwardMin) - potential(backwardMin);
+            // No path through an unsettled vertex can be shorter than the best path found so far.
+            if (forwardKey + backwardKey >= bestDistance) {
+                break;
+            }
+            if (forwardKey <= backwardKey) {
+                relax(graph, forward, forwardEdgeTo, forwardDistTo, backwardDistTo, 1);
+            } else {
+                relax(reverse, backward, backwardEdgeTo, backwardDistTo, forwardDistTo, -1);
+            }
+        }
+    }
+
+    /**
+     * Settles the minimum vertex in the given direction and relaxes its outgoing edges, recording any shorter path
+     * that meets the search in the opposite direction.
+     *
+     * @param edges        the graph providing edges in this direction.
+     * @param pq           the priority queue in this direction.
+     * @param edgeTo       the shortest paths tree in this direction.
+     * @param distTo       the best-known distances in this direction.
+     * @param otherDistTo  the best-known distances in the opposite direction.
+     * @param sign         1 for the forward direction, -1 for the backward direction.
+     */
+    private void relax(Graph<V> edges, ExtrinsicMinPQ<V> pq, Map<V, Edge<V>> edgeTo, Map<V, Double> distTo,
+                       Map<V, Double> otherDistTo, int sign) {
+        V from = pq.removeMin();
+        settledCount += 1;
+        for (Edge<V> e : edges.neighbors(from)) {
+            V to = e.to;
+            double oldDist = distTo.getOrDefault(to, Double.POSITIVE_INFINITY);
+            double newDist = distTo.get(from) + e.weight;
+            if (newDist < oldDist) {
+                edgeTo.put(to, e);
+                distTo.put(to, newDist);
+                double priority = newDist + sign * potential(to);
+                if (pq.contains(to)) {
+                    pq.changePriority(to, priority);
+                } else {
+                    pq.add(to, priority);
+                }
+                Double otherDist = otherDistTo.get(to);
+                if (otherDist != null && newDist + otherDist < bestDistance) {
+                    bestDistance = newDist + otherDist;
+                    meeting = to;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the forward potential of the given vertex: the average of the estimated distance to the goal and the
+     * negated estimated distance from the start.
+     */
+    private double potential(V v) {
+        return (graph.estimatedDistance(v, goal) - graph.estimatedDistance(start, v)) / 2;
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal.
+     *
+     * @return a list of vertices representing the shortest path.
+     */
+    public List<V> solution() {
+        if (meeting == null) {
+            return new ArrayList<>(List.of(goal));
+        }
+        List<V> path = AStarSolver.path(forwardEdgeTo, meeting);
+        V curr = meeting;
+        while (backwardEdgeTo.get(curr) != null) {
+            curr = backwardEdgeTo.get(curr).from;
+            path.add(curr);
+        }
+        return path;
+    }
+
+    /**
+     * Returns the total weight of the shortest path, or infinity if the goal is unreachable.
+     *
+     * @return the total weight of the shortest path.
+     */
+    public double distance() {
+        return bestDistance;
+    }
+
+    /**
+     * Returns the number of vertices settled (removed from either priority queue) by the search.
+     *
+     * @return the number of vertices settled by the search.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+}
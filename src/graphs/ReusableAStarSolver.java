@@ -0,0 +1,115 @@
+package graphs;
+
+import minpq.DoubleMapMinPQ;
+import minpq.ExtrinsicMinPQ;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A* search for answering many single-pair shortest path queries on the same {@link AStarGraph}. Unlike
+ * {@link AStarSolver}, the distance and edge tables are allocated once and reset between queries by removing only the
+ * vertices reached by the previous search, and every search stops as soon as the goal is settled. Instances are not
+ * thread-safe.
+ *
+ * @param <V> the type of vertices.
+ * @see AStarSolver
+ * @see AStarGraph
+ */
+public class ReusableAStarSolver<V> {
+    private final AStarGraph<V> graph;
+    private final Map<V, Edge<V>> edgeTo;
+    private final Map<V, Double> distTo;
+    /**
+     * The vertices reached by the most recent search, which are the only keys in the tables.
+     */
+    private final List<V> reached;
+    private int settledCount;
+
+    /**
+     * Constructs a new solver for the given graph.
+     *
+     * @param graph the input graph.
+     */
+    public ReusableAStarSolver(AStarGraph<V> graph) {
+        this.graph = graph;
+        this.edgeTo = new HashMap<>();
+        this.distTo = new HashMap<>();
+        this.reached = new ArrayList<>();
+    }
+
+    /**
+     * Executes A* search on the graph and returns the single-pair shortest path from the start to the goal.
+     *
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     * @return a list of vertices representing the shortest path.
+     * @throws CancellationException if the current thread is interrupted during the search.
+     */
+    public List<V> solution(V start, V goal) {
+        // Removing keys keeps the grown hash tables so later queries do not rehash, and unlike clearing them it costs
+        // time proportional to the previous search rather than to the largest one.
+        for (V v : reached) {
+            edgeTo.remove(v);
+            distTo.remove(v);
+        }
+        reached.clear();
+        settledCount = search(start, goal);
+        return AStarSolver.path(edgeTo, goal);
+    }
+
+    /**
+     * Runs A* search from the start until the goal is settled, recording each newly reached vertex.
+     *
+     * @return the number of vertices removed from the priority queue.
+     */
+    private int search(V start, V goal) {
+        ExtrinsicMinPQ<V> pq = new DoubleMapMinPQ<>();
+        pq.add(start, 0.0);
+        edgeTo.put(start, null);
+        distTo.put(start, 0.0);
+        reached.add(start);
+        int settled = 0;
+        while (!pq.isEmpty()) {
+            V from = pq.removeMin();
+            settled += 1;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("search interrupted");
+            }
+            if (from.equals(goal)) {
+                break;
+            }
+            for (Edge<V> e : graph.neighbors(from)) {
+                V to = e.to;
+                Double oldDist = distTo.get(to);
+                double newDist = distTo.get(from) + e.weight;
+                if (oldDist == null || newDist < oldDist) {
+                    if (oldDist == null) {
+                        reached.add(to);
+                    }
+                    edgeTo.put(to, e);
+                    distTo.put(to, newDist);
+                    double priority = newDist + graph.estimatedDistance(to, goal);
+                    if (pq.contains(to)) {
+                        pq.changePriority(to, priority);
+                    } else {
+                        pq.add(to, priority);
+                    }
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Returns the number of vertices settled (removed from the priority queue) by the most recent search.
+     *
+     * @return the number of vertices settled by the most recent search.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+}
@@ -0,0 +1,195 @@
+package huskymaps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe least-recently-used cache bounded by both the number of entries and their total weight (for example, an
+ * estimate of their size in bytes). Values are computed outside the lock, so a slow computation never blocks lookups
+ * of other keys. Hit, miss and eviction counts are recorded for monitoring.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of values.
+ */
+public class BoundedCache<K, V> {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    /**
+     * Access-ordered map from least to most recently used entry.
+     */
+    private final LinkedHashMap<K, V> entries;
+    private long weight;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxEntries the maximum number of entries.
+     * @param maxWeight  the maximum total weight of all entries.
+     * @param weigher    the function returning the weight of a value.
+     */
+    public BoundedCache(int maxEntries, long maxWeight, ToLongFunction<? super V> weigher) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the value for the key, or null if it is not cached.
+     *
+     * @param key the key.
+     * @return the cached value, or null.
+     */
+    public V get(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value for the key, computing and caching it if it is not cached. Concurrent misses on the same key
+     * may each compute the value.
+     *
+     * @param key     the key.
+     * @param compute the function computing the value for the key.
+     * @return the cached or computed value.
+     */
+    public V get(K key, Function<? super K, ? extends V> compute) {
+        V value = get(key);
+        if (value == null) {
+            value = compute.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value for the key, evicting least-recently-used entries until the cache is within its bounds. Values
+     * heavier than the maximum total weight are not cached.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > maxWeight) {
+            return;
+        }
+        synchronized (this) {
+            V old = entries.put(key, value);
+            if (old != null) {
+                weight -= weigher.applyAsLong(old);
+            }
+            weight += w;
+            Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || weight > maxWeight) {
+                Map.Entry<K, V> eldest = iterator.next();
+                weight -= weigher.applyAsLong(eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the cached entries.
+     *
+     * @return the total weight of the cached entries.
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached value.
+     *
+     * @return the number of cache hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached value.
+     *
+     * @return the number of cache misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a cached value, or 0 if there have been no lookups.
+     *
+     * @return the cache hit rate.
+     */
+    public double hitRate() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the bounds.
+     *
+     * @return the number of evictions.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns a snapshot of the size, weight, hit and eviction metrics by name, for reporting.
+     *
+     * @return the cache metrics by name.
+     */
+    public Map<String, Number> stats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("weight", weight());
+        stats.put("hits", hits());
+        stats.put("misses", misses());
+        stats.put("hitRate", hitRate());
+        stats.put("evictions", evictions());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedCache{" +
+                "size=" + size() +
+                ", weight=" + weight() +
+                ", hits=" + hits() +
+                ", misses=" + misses() +
+                ", hitRate=" + hitRate() +
+                ", evictions=" + evictions() +
+                '}';
+    }
+}
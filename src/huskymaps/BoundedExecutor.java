@@ -0,0 +1,140 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size pool for CPU-heavy work with a bounded queue and a per-task timeout, so that a burst of expensive
+ * requests waits for a bounded time and is then turned away instead of piling up behind the cores. Tasks that cannot
+ * be queued, or that do not finish within the timeout, fail with a {@link RejectedExecutionException}, and a task that
+ * is still running at the timeout is interrupted so that it does not keep its core busy.
+ * <p>
+ * Each pool thread is a long-lived platform thread, so per-thread state such as reusable solvers and encoders is
+ * shared across tasks rather than created for each caller.
+ *
+ * @see MapServer
+ */
+public class BoundedExecutor {
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMillis;
+    private final LongAdder completed;
+    private final LongAdder rejected;
+    private final LongAdder timedOut;
+
+    /**
+     * Computes a value, possibly failing with an {@link IOException}.
+     *
+     * @param <V> the type of the value.
+     */
+    @FunctionalInterface
+    public interface Task<V> {
+        /**
+         * Returns the computed value.
+         *
+         * @return the computed value.
+         * @throws IOException if the value cannot be computed.
+         */
+        V call() throws IOException;
+    }
+
+    /**
+     * Constructs a new executor with daemon threads.
+     *
+     * @param name          the name of the pool threads.
+     * @param threads       the number of pool threads.
+     * @param maxQueued     the maximum number of tasks waiting for a pool thread.
+     * @param timeoutMillis the maximum time from submitting a task to its result in milliseconds.
+     */
+    public BoundedExecutor(String name, int threads, int maxQueued, long timeoutMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutMillis = timeoutMillis;
+        this.completed = new LongAdder();
+        this.rejected = new LongAdder();
+        this.timedOut = new LongAdder();
+    }
+
+    /**
+     * Returns the result of running the task on a pool thread, waiting at most the timeout for it.
+     *
+     * @param task the task.
+     * @param <V>  the type of the result.
+     * @return the result of the task.
+     * @throws IOException                if the task failed.
+     * @throws RejectedExecutionException if the queue is full or the task did not finish within the timeout.
+     */
+    public <V> V call(Task<V> task) throws IOException {
+        Future<V> result;
+        try {
+            result = pool.submit(task::call);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new RejectedExecutionException("queue full: " + pool.getQueue().size() + " tasks waiting");
+        }
+        try {
+            V value = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            completed.increment();
+            return value;
+        } catch (TimeoutException e) {
+            // A queued task never runs, and a running task is interrupted. Searches check for interruption and stop
+            // early, and other tasks finish with their result discarded.
+            result.cancel(true);
+            timedOut.increment();
+            throw new RejectedExecutionException("timed out after " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Returns the executor statistics: active threads, queued tasks, and the number of completed, rejected and
+     * timed-out tasks.
+     *
+     * @return a new mutable map of statistic names to values.
+     */
+    public Map<String, Number> stats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("threads", pool.getMaximumPoolSize());
+        stats.put("active", pool.getActiveCount());
+        stats.put("queued", pool.getQueue().size());
+        stats.put("completed", completed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("timedOut", timedOut.sum());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedExecutor{" +
+                "threads=" + pool.getMaximumPoolSize() +
+                ", timeoutMillis=" + timeoutMillis +
+                ", stats=" + stats() +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.List;
+
+/**
+ * {@link Router} that remembers recent routes by their snapped start and goal vertices, so that repeated requests for
+ * the same route skip the search entirely.
+ *
+ * @see BoundedCache
+ */
+public class CachingRouter implements Router {
+    /**
+     * Approximate number of bytes for a cached route apart from its vertex references: the key, the list headers and
+     * the cache entry.
+     */
+    private static final long ENTRY_BYTES = 128;
+    /**
+     * Approximate number of bytes for each vertex of a cached route: the reference in the list and the point itself,
+     * which is counted because routers may return new points that only the cached route refers to.
+     */
+    private static final long VERTEX_BYTES = 8 + 32;
+
+    private final Router router;
+    private final BoundedCache<List<Point>, List<Point>> cache;
+
+    /**
+     * Constructs a new router that caches the routes computed by the given router.
+     *
+     * @param router   the router for computing routes that are not cached.
+     * @param maxRoutes the maximum number of cached routes.
+     * @param maxBytes  the maximum approximate number of bytes used by cached routes.
+     */
+    public CachingRouter(Router router, int maxRoutes, long maxBytes) {
+        this.router = router;
+        this.cache = new BoundedCache<>(maxRoutes, maxBytes, route -> ENTRY_BYTES + VERTEX_BYTES * route.size());
+    }
+
+    @Override
+    public List<Point> route(Point start, Point goal) {
+        return cache.get(List.of(start, goal), key -> List.copyOf(router.route(start, goal)));
+    }
+
+    /**
+     * Returns the route cache for monitoring its size and hit rate.
+     *
+     * @return the route cache.
+     */
+    public BoundedCache<List<Point>, List<Point>> cache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingRouter{" +
+                "router=" + router +
+                ", cache=" + cache +
+                '}';
+    }
+}
@@ -0,0 +1,649 @@
+package huskymaps;
+
+import minpq.IntMinPQ;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Contraction hierarchy (CH) over a {@link RoadNetwork} for fast single-pair shortest paths. Preprocessing contracts
+ * vertices one at a time from least to most important, adding a shortcut edge between two neighbors of the contracted
+ * vertex whenever the path through it is the only shortest path between them. Queries then run a bidirectional
+ * Dijkstra's search that only relaxes edges toward more important vertices, and unpack shortcuts back into the
+ * original street vertices.
+ *
+ * @see RoadNetwork
+ * @see Query
+ */
+public class ContractionHierarchy {
+    /**
+     * Identifies a serialized contraction hierarchy file.
+     */
+    private static final int MAGIC = 0x43483031;
+    /**
+     * The number of bytes stored for each edge.
+     */
+    private static final int EDGE_BYTES = 4 * Integer.BYTES + Double.BYTES;
+    /**
+     * Maximum number of vertices settled by each witness search during preprocessing. Making this smaller means
+     * preprocessing runs faster but may add unnecessary shortcuts.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final RoadNetwork network;
+    /**
+     * The contraction order of each vertex: higher ranks were contracted later and are more important.
+     */
+    private final int[] rank;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final double[] edgeWeight;
+    /**
+     * The two edges replaced by each shortcut, or -1 for original edges.
+     */
+    private final int[] edgeFirst;
+    private final int[] edgeSecond;
+    /**
+     * CSR lists of upward edge ids: edges from each vertex to a higher-ranked vertex.
+     */
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    /**
+     * CSR lists of downward edge ids: edges into each vertex from a higher-ranked vertex.
+     */
+    private final int[] downOffsets;
+    private final int[] downEdges;
+
+    private ContractionHierarchy(RoadNetwork network, int[] rank, int[] edgeFrom, int[] edgeTo, double[] edgeWeight,
+                                 int[] edgeFirst, int[] edgeSecond) {
+        this.network = network;
+        this.rank = rank;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeWeight = edgeWeight;
+        this.edgeFirst = edgeFirst;
+        this.edgeSecond = edgeSecond;
+        int n = network.size();
+        upOffsets = new int[n + 1];
+        downOffsets = new int[n + 1];
+        for (int e = 0; e < edgeFrom.length; e += 1) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+                upOffsets[edgeFrom[e] + 1] += 1;
+            } else {
+                downOffsets[edgeTo[e] + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v += 1) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upEdges = new int[upOffsets[n]];
+        downEdges = new int[downOffsets[n]];
+        int[] upNext = Arrays.copyOf(upOffsets, n);
+        int[] downNext = Arrays.copyOf(downOffsets, n);
+        for (int e = 0; e < edgeFrom.length; e += 1) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+                upEdges[upNext[edgeFrom[e]]++] = e;
+            } else {
+                downEdges[downNext[edgeTo[e]]++] = e;
+            }
+        }
+    }
+
+    /**
+     * Returns a new contraction hierarchy built by contracting every vertex of the given network.
+     *
+     * @param network the street network.
+     * @return a new contraction hierarchy for the network.
+     */
+    public static ContractionHierarchy build(RoadNetwork network) {
+        return new Contractor(network).run();
+    }
+
+    /**
+     * Returns the contraction hierarchy stored in the given file, which must have been built for the given network.
+     *
+     * @param network the street network.
+     * @param path    the path to a file written by {@link #write(String)}.
+     * @return the contraction hierarchy stored in the file.
+     * @throws IOException if the file cannot be read, is corrupt, or was built for a different network.
+     */
+    public static ContractionHierarchy read(RoadNetwork network, String path) throws IOException {
+        long size = new File(path).length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a contraction hierarchy file");
+            }
+            int n = in.readInt();
+            long fingerprint = in.readLong();
+            if (n != network.size() || fingerprint != fingerprint(network)) {
+                throw new IOException(path + " was built for a different network");
+            }
+            int[] rank = new int[n];
+            for (int v = 0; v < n; v += 1) {
+                rank[v] = in.readInt();
+                if (rank[v] < 0 || rank[v] >= n) {
+                    throw new IOException(path + " is a corrupt contraction hierarchy file");
+                }
+            }
+            int m = in.readInt();
+            long header = 2 * Integer.BYTES + Long.BYTES + (long) Integer.BYTES * n + Integer.BYTES;
+            if (m < 0 || m > (size - header) / EDGE_BYTES) {
+                throw new IOException(path + " is a corrupt contraction hierarchy file");
+            }
+            int[] from = new int[m];
+            int[] to = new int[m];
+            double[] weight = new double[m];
+            int[] first = new int[m];
+            int[] second = new int[m];
+            for (int e = 0; e < m; e += 1) {
+                from[e] = in.readInt();
+                to[e] = in.readInt();
+                weight[e] = in.readDouble();
+                first[e] = in.readInt();
+                second[e] = in.readInt();
+                // Shortcuts combine two earlier edges, so unpacking always terminates.
+                boolean original = first[e] == -1 && second[e] == -1;
+                boolean shortcut = first[e] >= 0 && first[e] < e && second[e] >= 0 && second[e] < e;
+                if (from[e] < 0 || from[e] >= n || to[e] < 0 || to[e] >= n || !(weight[e] >= 0)
+                        || !(original || shortcut)) {
+                    throw new IOException(path + " is a corrupt contraction hierarchy file");
+                }
+            }
+            return new ContractionHierarchy(network, rank, from, to, weight, first, second);
+        }
+    }
+
+    /**
+     * Writes this contraction hierarchy to the given file. The file is written to a temporary file in the same
+     * directory and then moved into place, so a crash or a concurrent start never observes a partial file.
+     *
+     * @param path the path to the destination file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(String path) throws IOException {
+        MapSnapshot.writeAtomically(path, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(network.size());
+            out.writeLong(fingerprint(network));
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            out.writeInt(edgeFrom.length);
+            for (int e = 0; e < edgeFrom.length; e += 1) {
+                out.writeInt(edgeFrom[e]);
+                out.writeInt(edgeTo[e]);
+                out.writeDouble(edgeWeight[e]);
+                out.writeInt(edgeFirst[e]);
+                out.writeInt(edgeSecond[e]);
+            }
+        });
+    }
+
+    /**
+     * Returns a hash of the vertex locations and edges of the network, used to detect stale files.
+     */
+    private static long fingerprint(RoadNetwork network) {
+        long hash = network.size();
+        for (int v = 0; v < network.size(); v += 1) {
+            Point point = network.point(v);
+            hash = hash * 31 + Double.doubleToLongBits(point.getX());
+            hash = hash * 31 + Double.doubleToLongBits(point.getY());
+            for (int e = network.begin(v); e < network.end(v); e += 1) {
+                hash = hash * 31 + network.target(e);
+                hash = hash * 31 + Float.floatToIntBits(network.weight(e));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the street network of this hierarchy.
+     *
+     * @return the street network of this hierarchy.
+     */
+    public RoadNetwork network() {
+        return network;
+    }
+
+    /**
+     * Returns the number of shortcut edges added during preprocessing.
+     *
+     * @return the number of shortcut edges.
+     */
+    public int shortcutCount() {
+        int count = 0;
+        for (int first : edgeFirst) {
+            if (first >= 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a new query object for searching this hierarchy.
+     *
+     * @return a new query object.
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    @Override
+    public String toString() {
+        return "ContractionHierarchy{" +
+                "vertices=" + network.size() +
+                ", edges=" + edgeFrom.length +
+                ", shortcuts=" + shortcutCount() +
+                '}';
+    }
+
+    /**
+     * Reusable bidirectional upward search over the hierarchy. Search state is allocated once and reset in time
+     * proportional to the number of vertices touched by the previous query. Instances are not thread-safe.
+     */
+    public class Query {
+        private final double[] forwardDist;
+        private final double[] backwardDist;
+        private final int[] forwardEdge;
+        private final int[] backwardEdge;
+        private final IntMinPQ forward;
+        private final IntMinPQ backward;
+        private final IntList touched;
+        private double distance;
+        private int settledCount;
+
+        private Query() {
+            int n = network.size();
+            forwardDist = new double[n];
+            backwardDist = new double[n];
+            Arrays.fill(forwardDist, Double.POSITIVE_INFINITY);
+            Arrays.fill(backwardDist, Double.POSITIVE_INFINITY);
+            forwardEdge = new int[n];
+            backwardEdge = new int[n];
+            forward = new IntMinPQ(n);
+            backward = new IntMinPQ(n);
+            touched = new IntList();
+        }
+
+        /**
+         * Returns the shortest route between the given vertices as a list of street vertices.
+         *
+         * @param start the start vertex.
+         * @param goal  the goal vertex.
+         * @return a list of locations representing the route.
+         * @throws CancellationException if the current thread is interrupted during the search.
+         */
+        public List<Point> route(Point start, Point goal) {
+            int[] path = route(network.id(start), network.id(goal));
+            if (path.length == 0) {
+                return new ArrayList<>(List.of(goal));
+            }
+            List<Point> result = new ArrayList<>(path.length);
+            for (int v : path) {
+                result.add(network.point(v));
+            }
+            return result;
+        }
+
+        /**
+         * Returns the shortest route between the given vertex ids, or an empty array if the goal is unreachable.
+         *
+         * @param s the start vertex id.
+         * @param t the goal vertex id.
+         * @return the vertex ids along the shortest route.
+         * @throws CancellationException if the current thread is interrupted during the search.
+         */
+        public int[] route(int s, int t) {
+            int meeting = search(s, t);
+            if (meeting < 0) {
+                return new int[0];
+            }
+            IntList path = new IntList();
+            path.add(s);
+            // Collect the forward half in reverse, then unpack each edge in order.
+            IntList edges = new IntList();
+            for (int v = meeting; v != s; v = edgeFrom[forwardEdge[v]]) {
+                edges.add(forwardEdge[v]);
+            }
+            for (int i = edges.size - 1; i >= 0; i -= 1) {
+                unpack(edges.items[i], path);
+            }
+            for (int v = meeting; v != t; v = edgeTo[backwardEdge[v]]) {
+                unpack(backwardEdge[v], path);
+            }
+            return Arrays.copyOf(path.items, path.size);
+        }
+
+        /**
+         * Returns the length of the route found by the most recent query, or infinity if there was none.
+         *
+         * @return the length of the most recent route.
+         */
+        public double distance() {
+            return distance;
+        }
+
+        /**
+         * Returns the number of vertices settled by the most recent query.
+         *
+         * @return the number of vertices settled by the most recent query.
+         */
+        public int settledCount() {
+            return settledCount;
+        }
+
+        /**
+         * Runs the bidirectional upward search and returns the vertex where the shortest route meets, or -1.
+         */
+        private int search(int s, int t) {
+            reset();
+            distance = Double.POSITIVE_INFINITY;
+            settledCount = 0;
+            int meeting = -1;
+            visit(forwardDist, s, 0);
+            forward.add(s, 0);
+            visit(backwardDist, t, 0);
+            backward.add(t, 0);
+            while (!forward.isEmpty() || !backward.isEmpty()) {
+                double forwardMin = forward.isEmpty() ? Double.POSITIVE_INFINITY : forward.peekMinPriority();
+                double backwardMin = backward.isEmpty() ? Double.POSITIVE_INFINITY : backward.peekMinPriority();
+                if (Math.min(forwardMin, backwardMin) >= distance) {
+                    break;
+                }
+                boolean isForward = forwardMin <= backwardMin;
+                int u = isForward ? forward.removeMin() : backward.removeMin();
+                settledCount += 1;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("search interrupted");
+                }
+                if (forwardDist[u] + backwardDist[u] < distance) {
+                    distance = forwardDist[u] + backwardDist[u];
+                    meeting = u;
+                }
+                if (isForward) {
+                    for (int i = upOffsets[u]; i < upOffsets[u + 1]; i += 1) {
+                        int e = upEdges[i];
+                        relax(forward, forwardDist, forwardEdge, edgeTo[e], forwardDist[u] + edgeWeight[e], e);
+                    }
+                } else {
+                    for (int i = downOffsets[u]; i < downOffsets[u + 1]; i += 1) {
+                        int e = downEdges[i];
+                        relax(backward, backwardDist, backwardEdge, edgeFrom[e], backwardDist[u] + edgeWeight[e], e);
+                    }
+                }
+            }
+            return meeting;
+        }
+
+        private void relax(IntMinPQ pq, double[] dist, int[] edgeTo, int v, double newDist, int e) {
+            if (newDist < dist[v]) {
+                visit(dist, v, newDist);
+                edgeTo[v] = e;
+                pq.addOrChangePriority(v, newDist);
+            }
+        }
+
+        private void visit(double[] dist, int v, double newDist) {
+            if (forwardDist[v] == Double.POSITIVE_INFINITY && backwardDist[v] == Double.POSITIVE_INFINITY) {
+                touched.add(v);
+            }
+            dist[v] = newDist;
+        }
+
+        private void reset() {
+            for (int i = 0; i < touched.size; i += 1) {
+                forwardDist[touched.items[i]] = Double.POSITIVE_INFINITY;
+                backwardDist[touched.items[i]] = Double.POSITIVE_INFINITY;
+            }
+            touched.size = 0;
+            forward.clear();
+            backward.clear();
+        }
+
+        /**
+         * Appends the street vertices along the given edge, excluding its originating vertex, to the path.
+         */
+        private void unpack(int edge, IntList path) {
+            IntList stack = new IntList();
+            stack.add(edge);
+            while (stack.size > 0) {
+                int e = stack.items[--stack.size];
+                if (edgeFirst[e] < 0) {
+                    path.add(edgeTo[e]);
+                } else {
+                    stack.add(edgeSecond[e]);
+                    stack.add(edgeFirst[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable array of {@code int} values.
+     */
+    private static class IntList {
+        int[] items = new int[8];
+        int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = item;
+            size += 1;
+        }
+    }
+
+    /**
+     * Preprocessing state for contracting the vertices of a network in order of importance.
+     */
+    private static class Contractor {
+        private final RoadNetwork network;
+        private final int n;
+        private int[] from;
+        private int[] to;
+        private double[] weight;
+        private int[] first;
+        private int[] second;
+        private int m;
+        private final IntList[] out;
+        private final IntList[] in;
+        private final boolean[] contracted;
+        private final int[] deletedNeighbors;
+        // Witness search state.
+        private final double[] dist;
+        private final IntList touched;
+        private final IntMinPQ pq;
+
+        Contractor(RoadNetwork network) {
+            this.network = network;
+            this.n = network.size();
+            from = new int[Math.max(network.edgeCount(), 1)];
+            to = new int[from.length];
+            weight = new double[from.length];
+            first = new int[from.length];
+            second = new int[from.length];
+            out = new IntList[n];
+            in = new IntList[n];
+            for (int v = 0; v < n; v += 1) {
+                out[v] = new IntList();
+                in[v] = new IntList();
+            }
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            dist = new double[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            touched = new IntList();
+            pq = new IntMinPQ(n);
+            for (int v = 0; v < n; v += 1) {
+                for (int e = network.begin(v); e < network.end(v); e += 1) {
+                    if (network.target(e) != v) {
+                        addEdge(v, network.target(e), network.weight(e), -1, -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run() {
+            IntMinPQ order = new IntMinPQ(n);
+            for (int v = 0; v < n; v += 1) {
+                order.add(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.removeMin();
+                // Lazy update: re-queue the vertex if its priority is stale and no longer the minimum.
+                double priority = priority(v);
+                if (!order.isEmpty() && priority > order.peekMinPriority()) {
+                    order.add(v, priority);
+                    continue;
+                }
+                contract(v, true);
+                contracted[v] = true;
+                rank[v] = next;
+                next += 1;
+                for (int i = 0; i < out[v].size; i += 1) {
+                    updateNeighbor(order, to[out[v].items[i]]);
+                }
+                for (int i = 0; i < in[v].size; i += 1) {
+                    updateNeighbor(order, from[in[v].items[i]]);
+                }
+            }
+            return new ContractionHierarchy(network, rank, Arrays.copyOf(from, m), Arrays.copyOf(to, m),
+                    Arrays.copyOf(weight, m), Arrays.copyOf(first, m), Arrays.copyOf(second, m));
+        }
+
+        private void updateNeighbor(IntMinPQ order, int w) {
+            if (!contracted[w]) {
+                deletedNeighbors[w] += 1;
+                order.changePriority(w, priority(w));
+            }
+        }
+
+        /**
+         * Returns the contraction priority of the vertex: the edge difference plus the number of contracted neighbors.
+         */
+        private double priority(int v) {
+            int degree = 0;
+            for (int i = 0; i < out[v].size; i += 1) {
+                degree += contracted[to[out[v].items[i]]] ? 0 : 1;
+            }
+            for (int i = 0; i < in[v].size; i += 1) {
+                degree += contracted[from[in[v].items[i]]] ? 0 : 1;
+            }
+            return contract(v, false) - degree + deletedNeighbors[v];
+        }
+
+        /**
+         * Returns the number of shortcuts needed to contract the vertex, adding them if create is true.
+         */
+        private int contract(int v, boolean create) {
+            int shortcuts = 0;
+            for (int i = 0; i < in[v].size; i += 1) {
+                int a = in[v].items[i];
+                int u = from[a];
+                if (contracted[u] || !isLightest(in[v], a, from, u)) {
+                    continue;
+                }
+                double maxDist = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < out[v].size; j += 1) {
+                    int b = out[v].items[j];
+                    if (!contracted[to[b]] && to[b] != u) {
+                        maxDist = Math.max(maxDist, weight[a] + weight[b]);
+                    }
+                }
+                if (maxDist == Double.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                witnessSearch(u, v, maxDist);
+                for (int j = 0; j < out[v].size; j += 1) {
+                    int b = out[v].items[j];
+                    int x = to[b];
+                    if (contracted[x] || x == u || !isLightest(out[v], b, to, x)) {
+                        continue;
+                    }
+                    if (dist[x] > weight[a] + weight[b]) {
+                        shortcuts += 1;
+                        if (create) {
+                            addEdge(u, x, weight[a] + weight[b], a, b);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Returns true if the edge is the first lightest edge in the list connecting to the same endpoint.
+         */
+        private boolean isLightest(IntList edges, int edge, int[] endpoint, int vertex) {
+            for (int i = 0; i < edges.size; i += 1) {
+                int e = edges.items[i];
+                if (e != edge && endpoint[e] == vertex
+                        && (weight[e] < weight[edge] || (weight[e] == weight[edge] && e < edge))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Runs a bounded Dijkstra's search from the source that avoids the excluded vertex, leaving distances in dist.
+         */
+        private void witnessSearch(int source, int excluded, double maxDist) {
+            for (int i = 0; i < touched.size; i += 1) {
+                dist[touched.items[i]] = Double.POSITIVE_INFINITY;
+            }
+            touched.size = 0;
+            pq.clear();
+            dist[source] = 0;
+            touched.add(source);
+            pq.add(source, 0);
+            int settled = 0;
+            while (!pq.isEmpty() && pq.peekMinPriority() <= maxDist && settled < WITNESS_SETTLE_LIMIT) {
+                int u = pq.removeMin();
+                settled += 1;
+                for (int i = 0; i < out[u].size; i += 1) {
+                    int e = out[u].items[i];
+                    int x = to[e];
+                    if (contracted[x] || x == excluded) {
+                        continue;
+                    }
+                    double newDist = dist[u] + weight[e];
+                    if (newDist < dist[x]) {
+                        if (dist[x] == Double.POSITIVE_INFINITY) {
+                            touched.add(x);
+                        }
+                        dist[x] = newDist;
+                        pq.addOrChangePriority(x, newDist);
+                    }
+                }
+            }
+        }
+
+        private void addEdge(int u, int x, double w, int a, int b) {
+            if (m == from.length) {
+                from = Arrays.copyOf(from, m * 2);
+                to = Arrays.copyOf(to, m * 2);
+                weight = Arrays.copyOf(weight, m * 2);
+                first = Arrays.copyOf(first, m * 2);
+                second = Arrays.copyOf(second, m * 2);
+            }
+            from[m] = u;
+            to[m] = x;
+            weight[m] = w;
+            first[m] = a;
+            second[m] = b;
+            out[u].add(m);
+            in[x].add(m);
+            m += 1;
+        }
+    }
+}
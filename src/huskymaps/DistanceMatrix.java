@@ -0,0 +1,110 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many-to-many shortest distances over a {@link RoadNetwork}, computed with one {@link OneToManySearch} per source that
+ * stops once every target is settled. Rows are computed in parallel on a dedicated fixed-size pool, so matrices never
+ * compete with other work for more threads than the pool has, and at most a fixed number of matrices are admitted at
+ * once so that a burst of requests is turned away instead of queueing without bound. Searches are pooled so that
+ * their vertex-sized tables are reused across rows and requests, and there is never more than one per pool thread.
+ *
+ * @see OneToManySearch
+ * @see SearchPool
+ */
+public class DistanceMatrix {
+    private final RoadNetwork network;
+    private final ThreadPoolExecutor pool;
+    /**
+     * Permits for the matrices that may be computed at once.
+     */
+    private final Semaphore admitted;
+    /**
+     * Searches for the rows, one per pool thread.
+     */
+    private final SearchPool<OneToManySearch> searches;
+
+    /**
+     * Constructs a new distance matrix calculator for the given network with daemon pool threads.
+     *
+     * @param network     the street network.
+     * @param threads     the number of pool threads computing rows.
+     * @param maxMatrices the maximum number of matrices computed at once.
+     */
+    public DistanceMatrix(RoadNetwork network, int threads, int maxMatrices) {
+        AtomicInteger count = new AtomicInteger();
+        this.network = network;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "matrix-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.admitted = new Semaphore(maxMatrices);
+        this.searches = new SearchPool<>(() -> new OneToManySearch(network), threads);
+    }
+
+    /**
+     * Returns the shortest distance from each source to each target, or infinity for unreachable pairs, in the units of
+     * the network edge weights.
+     *
+     * @param sources the source vertex ids.
+     * @param targets the target vertex ids.
+     * @return the distances indexed by source and then by target.
+     * @throws RejectedExecutionException if the maximum number of matrices are already being computed.
+     * @throws IOException               if interrupted while waiting for the rows.
+     */
+    public double[][] distances(int[] sources, int[] targets) throws IOException {
+        if (!admitted.tryAcquire()) {
+            throw new RejectedExecutionException("too many distance matrices in progress");
+        }
+        List<Future<double[]>> rows = new ArrayList<>(sources.length);
+        try {
+            for (int source : sources) {
+                rows.add(pool.submit(() -> searches.apply(search -> search.distances(source, targets))));
+            }
+            double[][] result = new double[sources.length][];
+            for (int i = 0; i < sources.length; i += 1) {
+                result[i] = rows.get(i).get();
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while computing distances");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            // Rows that have not started are skipped if the matrix failed.
+            for (Future<double[]> row : rows) {
+                row.cancel(false);
+            }
+            admitted.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DistanceMatrix{" +
+                "network=" + network +
+                ", threads=" + pool.getMaximumPoolSize() +
+                ", searches=" + searches +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package huskymaps;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Immutable PNG-encoded image with a strong entity tag derived from its bytes, so that cached images can be written
+ * to responses and revalidated with {@code If-None-Match} without encoding them again.
+ *
+ * @see MapServer
+ */
+public final class EncodedImage {
+    /**
+     * Number of bytes of the SHA-256 digest used in the entity tag.
+     */
+    private static final int ETAG_BYTES = 16;
+
+    private final byte[] png;
+    private final String etag;
+
+    /**
+     * Constructs a new encoded image from the given PNG bytes, which must not be modified afterwards.
+     *
+     * @param png the PNG bytes.
+     */
+    public EncodedImage(byte[] png) {
+        this.png = png;
+        this.etag = etag(png, 0, png.length);
+    }
+
+    /**
+     * Returns the PNG encoding of the image.
+     *
+     * @param image the image.
+     * @return the PNG encoding of the image.
+     * @throws IOException if the image cannot be encoded.
+     */
+    public static EncodedImage encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", os);
+        return new EncodedImage(os.toByteArray());
+    }
+
+    /**
+     * Returns a new decoded copy of the image.
+     *
+     * @return a new decoded copy of the image.
+     * @throws IOException if the bytes are not a readable image.
+     */
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    /**
+     * Returns the PNG bytes, which must not be modified.
+     *
+     * @return the PNG bytes.
+     */
+    public byte[] bytes() {
+        return png;
+    }
+
+    /**
+     * Returns the number of PNG bytes.
+     *
+     * @return the number of PNG bytes.
+     */
+    public int length() {
+        return png.length;
+    }
+
+    /**
+     * Returns the quoted strong entity tag for the image.
+     *
+     * @return the quoted entity tag.
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * Returns the quoted strong entity tag for the given range of PNG bytes.
+     *
+     * @param png    the array containing the PNG bytes.
+     * @param offset the index of the first PNG byte.
+     * @param length the number of PNG bytes.
+     * @return the quoted entity tag.
+     */
+    static String etag(byte[] png, int offset, int length) {
+        byte[] digest;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(png, offset, length);
+            digest = sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        StringBuilder result = new StringBuilder(2 * ETAG_BYTES + 2).append('"');
+        for (int i = 0; i < ETAG_BYTES; i += 1) {
+            result.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return result.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedImage{" +
+                "length=" + png.length +
+                ", etag=" + etag +
+                '}';
+    }
+}
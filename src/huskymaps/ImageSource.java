@@ -0,0 +1,28 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of base map images for the {@code /map} endpoint.
+ *
+ * @see MapServer
+ */
+@FunctionalInterface
+public interface ImageSource {
+    /**
+     * Returns the map image for the given viewport with a pin at each marker location.
+     *
+     * @param center  the center of the map image.
+     * @param zoom    the zoom level.
+     * @param width   the width of the image in pixels.
+     * @param height  the height of the image in pixels.
+     * @param markers the locations of pins to draw, possibly empty.
+     * @return the map image.
+     * @throws IOException if the image cannot be produced.
+     */
+    BufferedImage image(Point center, int zoom, int width, int height, List<Point> markers) throws IOException;
+}
@@ -0,0 +1,80 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.List;
+
+/**
+ * The street vertices reachable from a source within a distance budget, along with the shortest path tree joining them
+ * as a set of polylines that can be drawn over a map.
+ *
+ * @see OneToManySearch#isochrone(int, double)
+ */
+public class Isochrone {
+    private final Point source;
+    private final double budget;
+    private final List<Point> vertices;
+    private final List<List<Point>> polylines;
+
+    /**
+     * Constructs a new isochrone.
+     *
+     * @param source    the source vertex.
+     * @param budget    the maximum distance from the source.
+     * @param vertices  the reachable vertices in order of distance from the source.
+     * @param polylines the edges of the shortest path tree joined into polylines.
+     */
+    public Isochrone(Point source, double budget, List<Point> vertices, List<List<Point>> polylines) {
+        this.source = source;
+        this.budget = budget;
+        this.vertices = vertices;
+        this.polylines = polylines;
+    }
+
+    /**
+     * Returns the source vertex.
+     *
+     * @return the source vertex.
+     */
+    public Point source() {
+        return source;
+    }
+
+    /**
+     * Returns the maximum distance from the source, in the units of the network edge weights.
+     *
+     * @return the maximum distance from the source.
+     */
+    public double budget() {
+        return budget;
+    }
+
+    /**
+     * Returns the reachable vertices in order of distance from the source, starting with the source itself.
+     *
+     * @return the reachable vertices.
+     */
+    public List<Point> vertices() {
+        return vertices;
+    }
+
+    /**
+     * Returns the edges of the shortest path tree joined into polylines, each starting nearest to the source. Every
+     * reachable vertex other than the source ends exactly one tree edge.
+     *
+     * @return the polylines of the shortest path tree.
+     */
+    public List<List<Point>> polylines() {
+        return polylines;
+    }
+
+    @Override
+    public String toString() {
+        return "Isochrone{" +
+                "source=" + source +
+                ", budget=" + budget +
+                ", vertices=" + vertices.size() +
+                ", polylines=" + polylines.size() +
+                '}';
+    }
+}
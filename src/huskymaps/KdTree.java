@@ -0,0 +1,353 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * Static 2-d tree of items located by latitude and longitude for nearest-neighbor queries by great-circle distance.
+ * The tree is stored implicitly in arrays: the root of each subarray {@code [lo, hi)} is its middle element, which
+ * splits the remaining elements by latitude at even depths and by longitude at odd depths.
+ *
+ * @param <T> the type of items.
+ * @see MapGraph#closest(Point)
+ * @see MapGraph#getLocations(String, Point, int)
+ */
+public class KdTree<T> {
+    private final SpatialContext context;
+    private final Object[] items;
+    private final double[] lats;
+    private final double[] lons;
+
+    /**
+     * Constructs a new tree containing the given items.
+     *
+     * @param context  the spatial context used to measure distances.
+     * @param items    the items to index.
+     * @param location the function returning the location of each item.
+     */
+    public KdTree(SpatialContext context, List<? extends T> items, Function<? super T, Point> location) {
+        this(context, items, location, false);
+    }
+
+    private KdTree(SpatialContext context, List<? extends T> items, Function<? super T, Point> location,
+                   boolean arranged) {
+        this.context = context;
+        this.items = items.toArray();
+        this.lats = new double[this.items.length];
+        this.lons = new double[this.items.length];
+        for (int i = 0; i < this.items.length; i += 1) {
+            Point point = location.apply(items.get(i));
+            lats[i] = point.getLat();
+            lons[i] = point.getLon();
+        }
+        if (!arranged) {
+            build(0, this.items.length, 0);
+        }
+    }
+
+    /**
+     * Returns a tree containing the given items, which must already be in the order returned by {@link #items()}, so
+     * that the tree is restored without rearranging them.
+     *
+     * @param context  the spatial context used to measure distances.
+     * @param items    the items to index, in tree order.
+     * @param location the function returning the location of each item.
+     * @param <T>      the type of items.
+     * @return a tree containing the items.
+     */
+    static <T> KdTree<T> arranged(SpatialContext context, List<? extends T> items,
+                                  Function<? super T, Point> location) {
+        return new KdTree<>(context, items, location, true);
+    }
+
+    /**
+     * Returns an unmodifiable view of the items in tree order, the order in which they are stored.
+     *
+     * @return the items in tree order.
+     */
+    @SuppressWarnings("unchecked")
+    List<T> items() {
+        return (List<T>) Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    /**
+     * Returns the number of items in this tree.
+     *
+     * @return the number of items in this tree.
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Returns the item closest to the target, or null if this tree is empty.
+     *
+     * @param target the target location.
+     * @return the item closest to the target.
+     */
+    @SuppressWarnings("unchecked")
+    public T nearest(Point target) {
+        Nearest best = new Nearest();
+        nearest(0, items.length, 0, target, best);
+        return best.index < 0 ? null : (T) items[best.index];
+    }
+
+    /**
+     * Returns up to k items closest to the target, ordered from closest to farthest.
+     *
+     * @param target the target location.
+     * @param k      the maximum number of items to return.
+     * @return up to k items closest to the target.
+     */
+    public List<T> nearest(Point target, int k) {
+        return nearest(target, k, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns up to k items located within the given latitude and longitude bounds (inclusive) that are closest to the
+     * target, ordered from closest to farthest. Subtrees outside the bounds are never visited. The bounds do not wrap
+     * around the antimeridian.
+     *
+     * @param target the target location.
+     * @param k      the maximum number of items to return.
+     * @param minLat the minimum latitude.
+     * @param maxLat the maximum latitude.
+     * @param minLon the minimum longitude.
+     * @param maxLon the maximum longitude.
+     * @return up to k items within the bounds closest to the target.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> nearest(Point target, int k, double minLat, double maxLat, double minLon, double maxLon) {
+        if (k <= 0) {
+            return List.of();
+        }
+        PriorityQueue<Neighbor> best = new PriorityQueue<>(k, Comparator.comparingDouble(n -> -n.distance));
+        nearest(0, items.length, 0, target, k, best, new double[]{minLat, maxLat, minLon, maxLon});
+        List<Neighbor> neighbors = new ArrayList<>(best);
+        neighbors.sort(Comparator.comparingDouble(n -> n.distance));
+        List<T> result = new ArrayList<>(neighbors.size());
+        for (Neighbor neighbor : neighbors) {
+            result.add((T) items[neighbor.index]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the items located within the given latitude and longitude bounds (inclusive). The bounds do not wrap
+     * around the antimeridian.
+     *
+     * @param minLat the minimum latitude.
+     * @param maxLat the maximum latitude.
+     * @param minLon the minimum longitude.
+     * @param maxLon the maximum longitude.
+     * @return the items within the bounds, in no particular order.
+     */
+    public List<T> range(double minLat, double maxLat, double minLon, double maxLon) {
+        List<T> result = new ArrayList<>();
+        range(0, items.length, 0, minLat, maxLat, minLon, maxLon, result);
+        return result;
+    }
+
+    /**
+     * Single-nearest-neighbor search state.
+     */
+    private static class Nearest {
+        int index = -1;
+        double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * An item index and its distance to the query target.
+     */
+    private static class Neighbor {
+        final int index;
+        final double distance;
+
+        Neighbor(int index, double distance) {
+            this.index = index;
+            this.distance = distance;
+        }
+    }
+
+    private void nearest(int lo, int hi, int depth, Point target, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double distance = context.calcDistance(target, lons[mid], lats[mid]);
+        if (distance < best.distance) {
+            best.index = mid;
+            best.distance = distance;
+        }
+        boolean left = isLeft(target, mid, depth);
+        if (left) {
+            nearest(lo, mid, depth + 1, target, best);
+        } else {
+            nearest(mid + 1, hi, depth + 1, target, best);
+        }
+        if (lowerBound(target, mid, depth, left) < best.distance) {
+            if (left) {
+                nearest(mid + 1, hi, depth + 1, target, best);
+            } else {
+                nearest(lo, mid, depth + 1, target, best);
+            }
+        }
+    }
+
+    /**
+     * Finds the k nearest items within the bounds, given as {@code {minLat, maxLat, minLon, maxLon}}.
+     */
+    private void nearest(int lo, int hi, int depth, Point target, int k, PriorityQueue<Neighbor> best,
+                         double[] bounds) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (lats[mid] >= bounds[0] && lats[mid] <= bounds[1] && lons[mid] >= bounds[2] && lons[mid] <= bounds[3]) {
+            double distance = context.calcDistance(target, lons[mid], lats[mid]);
+            if (best.size() < k) {
+                best.add(new Neighbor(mid, distance));
+            } else if (distance < best.peek().distance) {
+                best.remove();
+                best.add(new Neighbor(mid, distance));
+            }
+        }
+        double split = depth % 2 == 0 ? lats[mid] : lons[mid];
+        // Elements equal to the split may fall on either side.
+        boolean lower = (depth % 2 == 0 ? bounds[0] : bounds[2]) <= split;
+        boolean upper = (depth % 2 == 0 ? bounds[1] : bounds[3]) >= split;
+        boolean left = isLeft(target, mid, depth);
+        if (left && lower) {
+            nearest(lo, mid, depth + 1, target, k, best, bounds);
+        } else if (!left && upper) {
+            nearest(mid + 1, hi, depth + 1, target, k, best, bounds);
+        }
+        double worst = best.size() < k ? Double.POSITIVE_INFINITY : best.peek().distance;
+        if (lowerBound(target, mid, depth, left) < worst) {
+            if (left && upper) {
+                nearest(mid + 1, hi, depth + 1, target, k, best, bounds);
+            } else if (!left && lower) {
+                nearest(lo, mid, depth + 1, target, k, best, bounds);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void range(int lo, int hi, int depth, double minLat, double maxLat, double minLon, double maxLon,
+                       List<T> result) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (lats[mid] >= minLat && lats[mid] <= maxLat && lons[mid] >= minLon && lons[mid] <= maxLon) {
+            result.add((T) items[mid]);
+        }
+        double split = depth % 2 == 0 ? lats[mid] : lons[mid];
+        double min = depth % 2 == 0 ? minLat : minLon;
+        double max = depth % 2 == 0 ? maxLat : maxLon;
+        // Elements equal to the split may fall on either side.
+        if (min <= split) {
+            range(lo, mid, depth + 1, minLat, maxLat, minLon, maxLon, result);
+        }
+        if (max >= split) {
+            range(mid + 1, hi, depth + 1, minLat, maxLat, minLon, maxLon, result);
+        }
+    }
+
+    /**
+     * Returns true if the target belongs to the left (smaller) side of the split at the given node.
+     */
+    private boolean isLeft(Point target, int node, int depth) {
+        if (depth % 2 == 0) {
+            return target.getLat() < lats[node];
+        }
+        return target.getLon() < lons[node];
+    }
+
+    /**
+     * Returns a lower bound, in degrees of arc, on the great-circle distance from the target to any location on the
+     * other side of the split at the given node.
+     */
+    private double lowerBound(Point target, int node, int depth, boolean left) {
+        if (depth % 2 == 0) {
+            // Every location at latitude L is at least |lat - L| away along any path.
+            return Math.abs(target.getLat() - lats[node]);
+        }
+        // The other side spans from the splitting meridian around to the antimeridian.
+        double dLon = left
+                ? Math.min(lons[node] - target.getLon(), target.getLon() + 180)
+                : Math.min(target.getLon() - lons[node], 180 - target.getLon());
+        if (dLon >= 90) {
+            return 0;
+        }
+        // Distance from a point to the great circle through a meridian.
+        double sin = Math.cos(Math.toRadians(target.getLat())) * Math.sin(Math.toRadians(dLon));
+        return Math.toDegrees(Math.asin(sin));
+    }
+
+    /**
+     * Recursively arranges the subarray {@code [lo, hi)} so that its middle element splits it on the depth's axis.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double[] keys = depth % 2 == 0 ? lats : lons;
+        select(keys, lo, hi - 1, mid);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect that partially sorts {@code [lo, hi]} by the given keys so that index k holds its final element.
+     */
+    private void select(double[] keys, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i += 1;
+                }
+                while (keys[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        double lat = lats[i];
+        lats[i] = lats[j];
+        lats[j] = lat;
+        double lon = lons[i];
+        lons[i] = lons[j];
+        lons[j] = lon;
+    }
+}
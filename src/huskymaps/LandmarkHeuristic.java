@@ -0,0 +1,235 @@
+package huskymaps;
+
+import graphs.AStarGraph;
+import graphs.Edge;
+import minpq.IntMinPQ;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link AStarGraph} view of a {@link RoadNetwork} whose {@code estimatedDistance} uses landmarks and the triangle
+ * inequality (ALT). For every landmark L, the shortest distances from L and to L are precomputed with Dijkstra's
+ * algorithm so that any distance from v to t is bounded below by both {@code d(L, t) - d(L, v)} and
+ * {@code d(v, L) - d(t, L)}. The estimate is the largest of these bounds and the great-circle distance, so it remains
+ * admissible and consistent while being much tighter on winding street networks.
+ *
+ * @see graphs.AStarSolver
+ * @see Selection
+ */
+public class LandmarkHeuristic implements AStarGraph<Point> {
+    private final RoadNetwork network;
+    private final Selection selection;
+    private final int[] landmarks;
+    /**
+     * The shortest distance from each landmark to each vertex, indexed by landmark then vertex id.
+     */
+    private final double[][] fromLandmark;
+    /**
+     * The shortest distance from each vertex to each landmark, indexed by landmark then vertex id.
+     */
+    private final double[][] toLandmark;
+
+    /**
+     * Strategies for choosing landmarks. Landmarks are always chosen from the largest strongly connected component,
+     * since a landmark in a small disconnected fragment bounds no distances between the vertices outside it.
+     */
+    public enum Selection {
+        /**
+         * Uniformly random vertices.
+         */
+        RANDOM,
+        /**
+         * Each landmark is the vertex farthest by road from all landmarks chosen so far, starting from the vertex
+         * farthest from a random vertex.
+         */
+        FARTHEST,
+        /**
+         * The map is split into equal angular sectors around its center and each landmark is the vertex farthest from
+         * the center within its sector, so landmarks surround the map.
+         */
+        PLANAR
+    }
+
+    /**
+     * Constructs a new heuristic for the network by choosing landmarks and computing their distance tables.
+     *
+     * @param network   the street network.
+     * @param count     the number of landmarks.
+     * @param selection the strategy for choosing landmarks.
+     * @param seed      the seed for random choices.
+     */
+    public LandmarkHeuristic(RoadNetwork network, int count, Selection selection, long seed) {
+        this.network = network;
+        this.selection = selection;
+        int[] component = network.largestComponent().stream().toArray();
+        count = Math.min(count, component.length);
+        this.landmarks = new int[count];
+        this.fromLandmark = new double[count][];
+        this.toLandmark = new double[count][];
+        RoadNetwork reverse = network.reverse();
+        Random random = new Random(seed);
+        int[] planar = selection == Selection.PLANAR ? planarLandmarks(component, count) : null;
+        // Minimum road distance from any chosen landmark to each vertex, for the FARTHEST strategy, which starts from
+        // the distances from a random vertex to choose the first landmark.
+        double[] nearest = null;
+        if (selection == Selection.FARTHEST && count > 0) {
+            nearest = dijkstra(network, component[random.nextInt(component.length)]);
+        }
+        for (int i = 0; i < count; i += 1) {
+            int landmark;
+            if (selection == Selection.RANDOM) {
+                landmark = component[random.nextInt(component.length)];
+            } else if (selection == Selection.FARTHEST) {
+                // Every vertex in the component is reachable from every landmark.
+                landmark = component[0];
+                for (int v : component) {
+                    if (nearest[v] > nearest[landmark]) {
+                        landmark = v;
+                    }
+                }
+            } else {
+                landmark = planar[i];
+            }
+            landmarks[i] = landmark;
+            fromLandmark[i] = dijkstra(network, landmark);
+            toLandmark[i] = dijkstra(reverse, landmark);
+            if (selection == Selection.FARTHEST) {
+                for (int v : component) {
+                    nearest[v] = i == 0 ? fromLandmark[i][v] : Math.min(nearest[v], fromLandmark[i][v]);
+                }
+            }
+        }
+    }
+
+    private static boolean reachable(double distance) {
+        return distance < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns one landmark from the component per angular sector around the center of the component, falling back to
+     * any vertex in the component for sectors that contain none of its vertices.
+     */
+    private int[] planarLandmarks(int[] component, int count) {
+        double lat = 0;
+        double lon = 0;
+        for (int v : component) {
+            lat += network.point(v).getLat();
+            lon += network.point(v).getLon();
+        }
+        lat /= component.length;
+        lon /= component.length;
+        double scale = Math.cos(Math.toRadians(lat));
+        int[] result = new int[count];
+        double[] farthest = new double[count];
+        Arrays.fill(result, -1);
+        for (int v : component) {
+            double dx = (network.point(v).getLon() - lon) * scale;
+            double dy = network.point(v).getLat() - lat;
+            double angle = Math.atan2(dy, dx) + Math.PI;
+            int sector = Math.min((int) (angle / (2 * Math.PI) * count), count - 1);
+            double distance = dx * dx + dy * dy;
+            if (result[sector] < 0 || distance > farthest[sector]) {
+                result[sector] = v;
+                farthest[sector] = distance;
+            }
+        }
+        for (int i = 0; i < count; i += 1) {
+            if (result[i] < 0) {
+                result[i] = component[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shortest distance from the source to every vertex, or infinity for unreachable vertices.
+     */
+    private static double[] dijkstra(RoadNetwork graph, int source) {
+        double[] distTo = new double[graph.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        IntMinPQ pq = new IntMinPQ(graph.size());
+        distTo[source] = 0;
+        pq.add(source, 0);
+        while (!pq.isEmpty()) {
+            int from = pq.removeMin();
+            for (int e = graph.begin(from); e < graph.end(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = distTo[from] + graph.weight(e);
+                if (newDist < distTo[to]) {
+                    distTo[to] = newDist;
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns the vertex ids of the landmarks.
+     *
+     * @return the vertex ids of the landmarks.
+     */
+    public int[] landmarks() {
+        return landmarks.clone();
+    }
+
+    /**
+     * Returns the number of bytes used by the landmark distance tables.
+     *
+     * @return the number of bytes used by the landmark distance tables.
+     */
+    public long memoryBytes() {
+        return 2L * Double.BYTES * landmarks.length * network.size();
+    }
+
+    /**
+     * Returns the lower bound on the distance between the given vertex ids.
+     *
+     * @param v the start vertex id.
+     * @param t the goal vertex id.
+     * @return the lower bound on the distance from v to t.
+     */
+    public double lowerBound(int v, int t) {
+        double bound = 0;
+        for (int i = 0; i < landmarks.length; i += 1) {
+            double[] from = fromLandmark[i];
+            double[] to = toLandmark[i];
+            if (reachable(from[t]) && reachable(from[v])) {
+                bound = Math.max(bound, from[t] - from[v]);
+            }
+            if (reachable(to[v]) && reachable(to[t])) {
+                bound = Math.max(bound, to[v] - to[t]);
+            }
+        }
+        return bound;
+    }
+
+    @Override
+    public List<Edge<Point>> neighbors(Point v) {
+        return network.neighbors(v);
+    }
+
+    @Override
+    public double estimatedDistance(Point start, Point end) {
+        double estimate = network.estimatedDistance(start, end);
+        int v = network.id(start);
+        int t = network.id(end);
+        if (v < 0 || t < 0) {
+            return estimate;
+        }
+        return Math.max(estimate, lowerBound(v, t));
+    }
+
+    @Override
+    public String toString() {
+        return "LandmarkHeuristic{" +
+                "landmarks=" + landmarks.length +
+                ", selection=" + selection +
+                ", memoryBytes=" + memoryBytes() +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+package huskymaps;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from {@code long} keys to {@code int} values using open addressing with linear probing over parallel
+ * primitive arrays, so that neither keys nor values are boxed. Intended for large OSM id tables, where it uses a
+ * small fraction of the memory of a {@code HashMap<Long, Integer>}.
+ *
+ * @see LongObjectMap
+ */
+public class LongIntMap {
+    /**
+     * Marks an empty slot. The key 0 itself is stored outside the table.
+     */
+    private static final long EMPTY = 0;
+    /**
+     * Maximum fraction of occupied slots before the table doubles.
+     */
+    private static final double MAX_LOAD = 0.75;
+
+    private long[] keys;
+    private int[] values;
+    /**
+     * The number of bits in a slot index.
+     */
+    private int bits;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Constructs an empty map.
+     */
+    public LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty map with room for the expected number of keys before resizing.
+     *
+     * @param expectedSize the expected number of keys.
+     */
+    public LongIntMap(int expectedSize) {
+        bits = Math.max(4, 64 - Long.numberOfLeadingZeros((long) (expectedSize / MAX_LOAD)));
+        keys = new long[1 << bits];
+        values = new int[1 << bits];
+    }
+
+    /**
+     * Returns the slot at which probing for the key starts.
+     */
+    private int slot(long key) {
+        // Fibonacci hashing spreads runs of consecutive ids across the table.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+
+    /**
+     * Returns the slot containing the key, or the empty slot where it would be inserted.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Returns true if the map contains the key.
+     *
+     * @param key the key.
+     * @return true if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey;
+        }
+        return keys[find(key)] == key;
+    }
+
+    /**
+     * Returns the value for the key, or the default value if the map does not contain the key.
+     *
+     * @param key          the key.
+     * @param defaultValue the value to return if the map does not contain the key.
+     * @return the value for the key, or the default value.
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int i = find(key);
+        return keys[i] == key ? values[i] : defaultValue;
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size += 1;
+            }
+            zeroValue = value;
+            return;
+        }
+        int i = find(key);
+        if (keys[i] == EMPTY) {
+            if (size + 1 > MAX_LOAD * keys.length) {
+                resize();
+                i = find(key);
+            }
+            keys[i] = key;
+            size += 1;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Doubles the table, reinserting every key.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        bits += 1;
+        keys = new long[1 << bits];
+        values = new int[1 << bits];
+        for (int i = 0; i < oldKeys.length; i += 1) {
+            if (oldKeys[i] != EMPTY) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     *
+     * @return the number of keys in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the map contains no keys.
+     *
+     * @return true if the map contains no keys.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all keys from the map, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the table arrays.
+     *
+     * @return the number of bytes used by the table arrays.
+     */
+    public long memoryBytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    @Override
+    public String toString() {
+        return "LongIntMap{" +
+                "size=" + size +
+                ", capacity=" + keys.length +
+                '}';
+    }
+}
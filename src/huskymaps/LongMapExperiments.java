@@ -0,0 +1,199 @@
+package huskymaps;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.FileInputStream;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Run experiments comparing {@link LongIntMap} and {@link LongObjectMap} with {@link HashMap} on the OSM ids in the
+ * {@code data/huskymaps} extracts: every node id is inserted in file order, and then every node reference in every way
+ * is looked up in file order, as during OSM ingestion. Reports the best time over several trials and the heap retained
+ * by each map. Pass OSM file paths as arguments to run against other extracts.
+ */
+class LongMapExperiments {
+    /**
+     * The default OpenStreetMap XML file paths.
+     */
+    private static final String[] OSM_PATHS = {
+            "data/huskymaps/tiny.osm.gz",
+            "data/huskymaps/seattle-tiny.osm.gz",
+    };
+    /**
+     * Number of trials for each map. The first trials also warm up the JIT compiler.
+     */
+    private static final int NUM_TRIALS = 5;
+
+    /**
+     * Collects the node ids and way node references in an OSM file.
+     */
+    private static class Ids extends DefaultHandler {
+        long[] nodes = new long[1024];
+        int nodeCount;
+        long[] refs = new long[1024];
+        int refCount;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("node")) {
+                if (nodeCount == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodeCount * 2);
+                }
+                nodes[nodeCount] = Long.parseLong(attributes.getValue("id"));
+                nodeCount += 1;
+            } else if (qName.equals("nd")) {
+                if (refCount == refs.length) {
+                    refs = Arrays.copyOf(refs, refCount * 2);
+                }
+                refs[refCount] = Long.parseLong(attributes.getValue("ref"));
+                refCount += 1;
+            }
+        }
+    }
+
+    /**
+     * A map implementation under test, loaded with every node id and then queried with every way reference.
+     */
+    private interface Experiment {
+        /**
+         * Returns a new map containing each node id, so that its retained size can be measured.
+         */
+        Object load(long[] nodes, int count);
+
+        /**
+         * Returns a checksum over the lookups of each reference in the map.
+         */
+        long lookup(Object map, long[] refs, int count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] paths = args.length > 0 ? args : OSM_PATHS;
+        Object value = new Object();
+        Map<String, Experiment> experiments = new LinkedHashMap<>();
+        experiments.put("HashMap<Long, Integer>", new Experiment() {
+            @Override
+            public Object load(long[] nodes, int count) {
+                Map<Long, Integer> map = new HashMap<>();
+                for (int i = 0; i < count; i += 1) {
+                    map.put(nodes[i], i);
+                }
+                return map;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public long lookup(Object map, long[] refs, int count) {
+                long sum = 0;
+                for (int i = 0; i < count; i += 1) {
+                    sum += ((Map<Long, Integer>) map).getOrDefault(refs[i], -1);
+                }
+                return sum;
+            }
+        });
+        experiments.put("LongIntMap", new Experiment() {
+            @Override
+            public Object load(long[] nodes, int count) {
+                LongIntMap map = new LongIntMap();
+                for (int i = 0; i < count; i += 1) {
+                    map.put(nodes[i], i);
+                }
+                return map;
+            }
+
+            @Override
+            public long lookup(Object map, long[] refs, int count) {
+                long sum = 0;
+                for (int i = 0; i < count; i += 1) {
+                    sum += ((LongIntMap) map).getOrDefault(refs[i], -1);
+                }
+                return sum;
+            }
+        });
+        experiments.put("HashMap<Long, Object>", new Experiment() {
+            @Override
+            public Object load(long[] nodes, int count) {
+                Map<Long, Object> map = new HashMap<>();
+                for (int i = 0; i < count; i += 1) {
+                    map.put(nodes[i], value);
+                }
+                return map;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public long lookup(Object map, long[] refs, int count) {
+                long sum = 0;
+                for (int i = 0; i < count; i += 1) {
+                    sum += ((Map<Long, Object>) map).get(refs[i]) != null ? 1 : 0;
+                }
+                return sum;
+            }
+        });
+        experiments.put("LongObjectMap", new Experiment() {
+            @Override
+            public Object load(long[] nodes, int count) {
+                LongObjectMap<Object> map = new LongObjectMap<>();
+                for (int i = 0; i < count; i += 1) {
+                    map.put(nodes[i], value);
+                }
+                return map;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public long lookup(Object map, long[] refs, int count) {
+                long sum = 0;
+                for (int i = 0; i < count; i += 1) {
+                    sum += ((LongObjectMap<Object>) map).get(refs[i]) != null ? 1 : 0;
+                }
+                return sum;
+            }
+        });
+
+        for (String path : paths) {
+            Ids ids = new Ids();
+            SAXParserFactory.newInstance().newSAXParser().parse(new GZIPInputStream(new FileInputStream(path)), ids);
+            System.out.println(path + ": " + ids.nodeCount + " node ids, " + ids.refCount + " way references");
+            for (Map.Entry<String, Experiment> entry : experiments.entrySet()) {
+                Experiment experiment = entry.getValue();
+                long bestLoad = Long.MAX_VALUE;
+                long bestLookup = Long.MAX_VALUE;
+                long retained = 0;
+                long checksum = 0;
+                for (int trial = 0; trial < NUM_TRIALS; trial += 1) {
+                    long before = usedMemory();
+                    long start = System.nanoTime();
+                    Object map = experiment.load(ids.nodes, ids.nodeCount);
+                    bestLoad = Math.min(bestLoad, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    checksum = experiment.lookup(map, ids.refs, ids.refCount);
+                    bestLookup = Math.min(bestLookup, System.nanoTime() - start);
+                    retained = usedMemory() - before;
+                    // Keeps the map reachable until its retained size has been measured.
+                    Reference.reachabilityFence(map);
+                }
+                System.out.printf("%-24s load %8.3f ms  lookup %8.3f ms  retained %6.1f MB (%5.1f B/id)  checksum %d%n",
+                        entry.getKey(), bestLoad / 1e6, bestLookup / 1e6, retained / 1e6,
+                        (double) retained / ids.nodeCount, checksum);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of heap in use after garbage collection.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i += 1) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
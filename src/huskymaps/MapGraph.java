@@ -1,22 +1,18 @@
 package huskymaps;
 
-import autocomplete.Autocomplete;
-import autocomplete.TreeSetAutocomplete;
+import autocomplete.RankedAutocomplete;
 import graphs.AStarGraph;
 import graphs.Edge;
 import org.locationtech.spatial4j.context.SpatialContext;
 import org.locationtech.spatial4j.shape.Point;
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.IntBuffer;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 
@@ -30,9 +26,16 @@ public class MapGraph implements AStarGraph<Point> {
     private final String osmPath;
     private final String placesPath;
     private final SpatialContext context;
+    private final Storage storage;
     private final Map<Point, Set<Edge<Point>>> neighbors;
+    private RoadNetwork network;
+    private final KdTree<Point> vertexIndex;
     private final Map<String, List<Point>> locations;
-    private final Autocomplete autocomplete;
+    /**
+     * Spatial index over the locations of each named place.
+     */
+    private final Map<String, KdTree<Point>> locationIndex;
+    private final RankedAutocomplete autocomplete;
     private final Map<CharSequence, Integer> importance;
 
     /**
@@ -46,13 +49,46 @@ public class MapGraph implements AStarGraph<Point> {
      */
     public MapGraph(String osmPath, String placesPath, SpatialContext context)
             throws ParserConfigurationException, SAXException, IOException {
+        this(osmPath, placesPath, context, Storage.ADJACENCY_MAP);
+    }
+
+    /**
+     * Constructs a new street map graph from the path to an OSM file and a places TSV.
+     *
+     * @param osmPath    The path to a gzipped OSM (XML) file.
+     * @param placesPath The path to a gzipped TSV file representing places and importance.
+     * @param storage    The representation used to store the street network.
+     * @throws ParserConfigurationException if a parser cannot be created.
+     * @throws SAXException                 for SAX errors.
+     * @throws IOException                  if a file is not found or if the file is not gzipped.
+     */
+    public MapGraph(String osmPath, String placesPath, SpatialContext context, Storage storage)
+            throws ParserConfigurationException, SAXException, IOException {
+        this(osmPath, placesPath, context, storage, Ingestion.SINGLE_PASS);
+    }
+
+    /**
+     * Constructs a new street map graph from the path to an OSM file and a places TSV.
+     *
+     * @param osmPath    The path to a gzipped OSM (XML) file.
+     * @param placesPath The path to a gzipped TSV file representing places and importance.
+     * @param storage    The representation used to store the street network.
+     * @param ingestion  The strategy for reading the OSM file.
+     * @throws ParserConfigurationException if a parser cannot be created.
+     * @throws SAXException                 for SAX errors.
+     * @throws IOException                  if a file is not found or if the file is not gzipped.
+     */
+    public MapGraph(String osmPath, String placesPath, SpatialContext context, Storage storage, Ingestion ingestion)
+            throws ParserConfigurationException, SAXException, IOException {
         this.osmPath = osmPath;
         this.placesPath = placesPath;
         this.context = context;
+        this.storage = storage;
 
-        // Parse the OpenStreetMap (OSM) data using the SAXParser XML tree walker.
-        neighbors = new HashMap<>();
-        Handler handler = new Handler(Set.of(
+        // Parse the OpenStreetMap (OSM) data with decompression, parsing and graph assembly on separate threads.
+        neighbors = storage == Storage.ADJACENCY_MAP ? new HashMap<>() : null;
+        RoadNetwork.Builder builder = storage == Storage.CSR ? new RoadNetwork.Builder(context) : null;
+        OsmPipeline pipeline = new OsmPipeline(context, Set.of(
                 "motorway",
                 "trunk",
                 "primary",
@@ -66,14 +102,22 @@ public class MapGraph implements AStarGraph<Point> {
                 "primary_link",
                 "secondary_link",
                 "tertiary_link"
-        ));
-        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-        saxParser.parse(new GZIPInputStream(fileStream(osmPath)), handler);
+        ), ingestion == Ingestion.TWO_PASS);
+        locations = pipeline.read(() -> fileStream(osmPath), (from, to) -> {
+            if (builder != null) {
+                builder.addEdge(from, to);
+                builder.addEdge(to, from);
+            } else {
+                addEdge(from, to);
+                addEdge(to, from);
+            }
+        });
+        if (builder != null) {
+            network = builder.build();
+        }
+        vertexIndex = new KdTree<>(context, routableVertices(), point -> point);
 
-        // Add reachable locations to the Autocomplete engine.
-        locations = handler.byName;
-        autocomplete = new TreeSetAutocomplete();
-        autocomplete.addAll(locations.keySet());
+        locationIndex = locationIndex(context, locations);
 
         // Parse the place-importance data.
         importance = new HashMap<>();
@@ -83,6 +127,75 @@ public class MapGraph implements AStarGraph<Point> {
                 importance.put(line.next(), line.nextInt());
             }
         }
+
+        // Add reachable locations to the Autocomplete engine, ranked by importance.
+        autocomplete = rankedAutocomplete(locations.keySet(), importance);
+    }
+
+    /**
+     * Constructs a street map graph from an already-built street network and place data, as read by
+     * {@link MapSnapshot}. The spatial indexes are restored from their stored order without searching for the
+     * largest component or rearranging any points, and the names are restored in sorted order for autocomplete.
+     *
+     * @param osmPath    The path to the gzipped OSM (XML) file that the street network was parsed from.
+     * @param placesPath The path to the gzipped TSV file that the place importance was parsed from.
+     * @param network    The street network.
+     * @param routable   The ids of the routable vertices, in the order of {@link #vertexIndex()}.
+     * @param locations  The locations of each named place in sorted name order, each in the order of
+     *                   {@link #locationIndex(String)}.
+     * @param importance The importance of each place name.
+     */
+    MapGraph(String osmPath, String placesPath, SpatialContext context, RoadNetwork network, IntBuffer routable,
+             Map<String, List<Point>> locations, Map<CharSequence, Integer> importance) {
+        this.osmPath = osmPath;
+        this.placesPath = placesPath;
+        this.context = context;
+        this.storage = Storage.CSR;
+        this.neighbors = null;
+        this.network = network;
+        List<Point> vertices = new ArrayList<>(routable.limit());
+        for (int i = 0; i < routable.limit(); i += 1) {
+            vertices.add(network.point(routable.get(i)));
+        }
+        this.vertexIndex = KdTree.arranged(context, vertices, point -> point);
+        this.locations = locations;
+        this.locationIndex = new HashMap<>(locations.size() * 2);
+        for (Map.Entry<String, List<Point>> entry : locations.entrySet()) {
+            locationIndex.put(entry.getKey(), KdTree.arranged(context, entry.getValue(), point -> point));
+        }
+        this.autocomplete = rankedAutocomplete(locations.keySet(), importance);
+        this.importance = importance;
+    }
+
+    /**
+     * Returns a new spatial index over the locations of each named place.
+     *
+     * @param context   the spatial context used to measure distances.
+     * @param locations the locations of each named place.
+     * @return a new map from each name to a tree of its locations.
+     */
+    private static Map<String, KdTree<Point>> locationIndex(SpatialContext context,
+                                                           Map<String, List<Point>> locations) {
+        Map<String, KdTree<Point>> result = new HashMap<>(locations.size() * 2);
+        for (Map.Entry<String, List<Point>> entry : locations.entrySet()) {
+            result.put(entry.getKey(), new KdTree<>(context, entry.getValue(), point -> point));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new autocomplete engine over the given names that ranks each name by its importance, where names with
+     * lower values are returned first and names without an importance are returned last.
+     *
+     * @param names      the names of the locations.
+     * @param importance the importance of each place name.
+     * @return a new autocomplete engine over the names.
+     */
+    private static RankedAutocomplete rankedAutocomplete(Collection<String> names,
+                                                         Map<CharSequence, Integer> importance) {
+        RankedAutocomplete result = new RankedAutocomplete(name -> importance.getOrDefault(name, Integer.MAX_VALUE));
+        result.addAll(names);
+        return result;
     }
 
     /**
@@ -92,23 +205,77 @@ public class MapGraph implements AStarGraph<Point> {
      * @return an input stream with the contents of the specified file.
      * @throws FileNotFoundException if there is no file at the specified path.
      */
-    private static InputStream fileStream(String path) throws FileNotFoundException {
+    static InputStream fileStream(String path) throws FileNotFoundException {
         if (System.getenv("PORT") == null) {
             return new FileInputStream(path);
         }
-        return Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+        InputStream result = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+        if (result == null) {
+            throw new FileNotFoundException(path);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the vertices in the largest strongly connected component of the street network. Disconnected fragments,
+     * such as isolated service roads and ways cut off at the edge of the extract, are left out so that locations are
+     * never snapped to a vertex from which most routes are unreachable. The component is found in the representation
+     * in use, so {@link Storage#ADJACENCY_MAP} graphs are not converted to compressed sparse row form.
+     *
+     * @return the vertices in the largest strongly connected component.
+     */
+    private List<Point> routableVertices() {
+        if (storage == Storage.CSR) {
+            BitSet component = network.largestComponent();
+            List<Point> result = new ArrayList<>(component.cardinality());
+            for (int v = component.nextSetBit(0); v >= 0; v = component.nextSetBit(v + 1)) {
+                result.add(network.point(v));
+            }
+            return result;
+        }
+        // Every street is added in both directions, so the strongly connected components are the connected components.
+        Set<Point> visited = new HashSet<>();
+        List<Point> largest = List.of();
+        for (Point root : neighbors.keySet()) {
+            if (!visited.add(root)) {
+                continue;
+            }
+            List<Point> component = new ArrayList<>();
+            component.add(root);
+            for (int i = 0; i < component.size(); i += 1) {
+                for (Edge<Point> e : neighbors.getOrDefault(component.get(i), Set.of())) {
+                    if (visited.add(e.to)) {
+                        component.add(e.to);
+                    }
+                }
+            }
+            if (component.size() > largest.size()) {
+                largest = component;
+            }
+        }
+        return largest;
     }
 
     /**
-     * Returns the location closest to the given target location.
+     * Returns the routable location closest to the given target location. Only vertices in the largest strongly
+     * connected component of the street network are considered.
      *
      * @param target the target location.
      * @return the id of the location closest to the target.
      */
     public Point closest(Point target) {
-        return Collections.min(neighbors.keySet(), Comparator.comparingDouble(
-                location -> context.calcDistance(target, location)
-        ));
+        return vertexIndex.nearest(target);
+    }
+
+    /**
+     * Returns up to k routable locations closest to the given target location, ordered from closest to farthest.
+     *
+     * @param target the target location.
+     * @param k      the maximum number of locations to return.
+     * @return up to k locations closest to the target.
+     */
+    public List<Point> closest(Point target, int k) {
+        return vertexIndex.nearest(target, k);
     }
 
     /**
@@ -118,9 +285,42 @@ public class MapGraph implements AStarGraph<Point> {
      * @return a list of full names of locations matching the prefix.
      */
     public List<CharSequence> getLocationsByPrefix(String prefix) {
-        List<CharSequence> result = autocomplete.allMatches(prefix);
-        result.sort(Comparator.comparingInt(importance::get));
-        return result;
+        return autocomplete.allMatches(prefix);
+    }
+
+    /**
+     * Returns the names of up to k locations that prefix-match the query string, ordered by importance. Only the k
+     * best names are visited, so the cost does not grow with the number of matches.
+     *
+     * @param prefix prefix string that could be any case with or without punctuation.
+     * @param k      the maximum number of names to return.
+     * @return a list of up to k full names of locations matching the prefix.
+     */
+    public List<CharSequence> getLocationsByPrefix(String prefix, int k) {
+        return autocomplete.topMatches(prefix, k);
+    }
+
+    /**
+     * Returns the names of up to k locations that begin with a string within the given edit distance of the query
+     * string, ignoring case. Names are ordered by edit distance and then by importance.
+     *
+     * @param prefix      prefix string that may be misspelled.
+     * @param maxDistance the maximum number of inserted, deleted or substituted characters.
+     * @param k           the maximum number of names to return.
+     * @return a list of up to k full names of locations approximately matching the prefix.
+     */
+    public List<CharSequence> getLocationsByFuzzyPrefix(String prefix, int maxDistance, int k) {
+        return autocomplete.fuzzyMatches(prefix, maxDistance, k);
+    }
+
+    /**
+     * Returns the number of location names that prefix-match the query string.
+     *
+     * @param prefix prefix string that could be any case with or without punctuation.
+     * @return the number of names matching the prefix.
+     */
+    public int countLocationsByPrefix(String prefix) {
+        return autocomplete.countMatches(prefix);
     }
 
     /**
@@ -130,16 +330,124 @@ public class MapGraph implements AStarGraph<Point> {
      * @return a list of locations whose name matches the location name.
      */
     public List<Point> getLocations(String locationName, Point center) {
-        if (locationName == null || !locations.containsKey(locationName)) {
+        return getLocations(locationName, center, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to k locations that match a valid location name, ordered from closest to farthest from the center.
+     *
+     * @param locationName a full name of a valid location.
+     * @param center       the location to measure distances from.
+     * @param k            the maximum number of locations to return.
+     * @return a list of up to k locations whose name matches the location name.
+     */
+    public List<Point> getLocations(String locationName, Point center, int k) {
+        KdTree<Point> index = locationName == null ? null : locationIndex.get(locationName);
+        if (index == null) {
             return List.of();
         }
-        List<Point> result = new ArrayList<>(locations.get(locationName));
-        result.sort(Comparator.comparingDouble(location -> context.calcDistance(center, location)));
-        return result;
+        return index.nearest(center, Math.min(k, index.size()));
+    }
+
+    /**
+     * Returns up to k locations that match a valid location name within the given latitude and longitude bounds
+     * (inclusive), ordered from closest to farthest from the center. Locations outside the bounds are skipped a
+     * subtree at a time rather than one by one.
+     *
+     * @param locationName a full name of a valid location.
+     * @param center       the location to measure distances from.
+     * @param k            the maximum number of locations to return.
+     * @param minLat       the minimum latitude.
+     * @param maxLat       the maximum latitude.
+     * @param minLon       the minimum longitude.
+     * @param maxLon       the maximum longitude.
+     * @return a list of up to k locations within the bounds whose name matches the location name.
+     */
+    public List<Point> getLocations(String locationName, Point center, int k,
+                                    double minLat, double maxLat, double minLon, double maxLon) {
+        KdTree<Point> index = locationName == null ? null : locationIndex.get(locationName);
+        if (index == null) {
+            return List.of();
+        }
+        return index.nearest(center, Math.min(k, index.size()), minLat, maxLat, minLon, maxLon);
+    }
+
+    /**
+     * Returns the street network in compressed sparse row form. For {@link Storage#ADJACENCY_MAP} graphs, the network
+     * is built from the adjacency map on first use.
+     *
+     * @return the street network in compressed sparse row form.
+     */
+    public synchronized RoadNetwork network() {
+        if (network == null) {
+            RoadNetwork.Builder builder = new RoadNetwork.Builder(context);
+            for (Point from : neighbors.keySet()) {
+                builder.vertex(from);
+            }
+            for (Set<Edge<Point>> edges : neighbors.values()) {
+                for (Edge<Point> e : edges) {
+                    builder.addEdge(builder.vertex(e.from), builder.vertex(e.to), (float) e.weight);
+                }
+            }
+            network = builder.build();
+        }
+        return network;
+    }
+
+    /**
+     * Returns the spatial context used to measure distances.
+     */
+    SpatialContext context() {
+        return context;
+    }
+
+    /**
+     * Returns the path to the OSM file that this graph was parsed from.
+     */
+    String osmPath() {
+        return osmPath;
+    }
+
+    /**
+     * Returns the path to the places TSV that the place importance was parsed from.
+     */
+    String placesPath() {
+        return placesPath;
+    }
+
+    /**
+     * Returns the spatial index over the routable vertices.
+     */
+    KdTree<Point> vertexIndex() {
+        return vertexIndex;
+    }
+
+    /**
+     * Returns the spatial index over the locations with the given name, or null if there are none.
+     */
+    KdTree<Point> locationIndex(String name) {
+        return locationIndex.get(name);
+    }
+
+    /**
+     * Returns an unmodifiable view of the locations of each named place.
+     */
+    Map<String, List<Point>> locations() {
+        return Collections.unmodifiableMap(locations);
+    }
+
+    /**
+     * Returns an unmodifiable view of the importance of each place name.
+     */
+    Map<CharSequence, Integer> importance() {
+        return Collections.unmodifiableMap(importance);
     }
 
     @Override
     public List<Edge<Point>> neighbors(Point v) {
+        if (storage == Storage.CSR) {
+            return network.neighbors(v);
+        }
         return new ArrayList<>(neighbors.getOrDefault(v, Set.of()));
     }
 
@@ -154,125 +462,47 @@ public class MapGraph implements AStarGraph<Point> {
                 "osmPath='" + osmPath + '\'' +
                 ", placesPath='" + placesPath + '\'' +
                 ", context='" + context + '\'' +
+                ", storage=" + storage +
                 '}';
     }
 
     /**
-     * Adds an edge to this graph if it doesn't already exist, using distance as the weight.
+     * Representations for storing the street network.
      */
-    private void addEdge(Point from, Point to) {
-        if (!neighbors.containsKey(from)) {
-            neighbors.put(from, new HashSet<>());
-        }
-        neighbors.get(from).add(new Edge<>(from, to, estimatedDistance(from, to)));
+    public enum Storage {
+        /**
+         * {@link HashMap} of each {@link Point} to its {@link HashSet} of outgoing {@link Edge} objects.
+         */
+        ADJACENCY_MAP,
+        /**
+         * {@link RoadNetwork} with {@code int} vertex ids and compressed sparse row (CSR) adjacency arrays.
+         */
+        CSR
     }
 
     /**
-     * Parses OSM XML files to construct a StreetMapGraph.
+     * Strategies for reading the OSM file.
+     *
+     * @see OsmPipeline
      */
-    private class Handler extends DefaultHandler {
-        private final Set<String> allowedHighwayTypes;
-        private final Map<Long, Point> byId;
-        private final Map<String, List<Point>> byName;
-        private String state;
-        private long id;
-        private String name;
-        private boolean validWay;
-        private Point location;
-        private Queue<Point> path;
-
-        Handler(Set<String> allowedHighwayTypes) {
-            this.allowedHighwayTypes = allowedHighwayTypes;
-            this.byId = new HashMap<>();
-            this.byName = new HashMap<>();
-            reset();
-        }
-
+    public enum Ingestion {
         /**
-         * Reset the handler state before processing a new way or node.
+         * Read the file once, keeping every node until all ways have been read.
          */
-        private void reset() {
-            state = "";
-            id = Long.MIN_VALUE;
-            name = "";
-            validWay = false;
-            location = null;
-            path = new ArrayDeque<>();
-        }
-
+        SINGLE_PASS,
         /**
-         * Called at the beginning of an element.
-         *
-         * @param uri        The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                   if Namespace processing is not being performed.
-         * @param localName  The local name (without prefix), or the empty string if Namespace
-         *                   processing is not being performed.
-         * @param qName      The qualified name (with prefix), or the empty string if qualified names are
-         *                   not available. This tells us which element we're looking at.
-         * @param attributes The attributes attached to the element. If there are no attributes, it
-         *                   shall be an empty Attributes object.
-         * @see Attributes
+         * Read the file twice, first collecting the nodes referenced by routable ways and then keeping only those.
          */
-        @Override
-        public void startElement(String uri, String localName, String qName, Attributes attributes) {
-            if (qName.equals("node")) {
-                state = "node";
-                id = Long.parseLong(attributes.getValue("id"));
-                location = context.getShapeFactory().pointLatLon(
-                        Double.parseDouble(attributes.getValue("lat")),
-                        Double.parseDouble(attributes.getValue("lon"))
-                );
-            } else if (qName.equals("way")) {
-                state = "way";
-            } else if (state.equals("way") && qName.equals("nd")) {
-                long ref = Long.parseLong(attributes.getValue("ref"));
-                path.add(byId.get(ref));
-            } else if (state.equals("way") && qName.equals("tag")) {
-                String k = attributes.getValue("k");
-                String v = attributes.getValue("v");
-                if (k.equals("highway")) {
-                    validWay = allowedHighwayTypes.contains(v);
-                }
-            } else if (state.equals("node") && qName.equals("tag") && attributes.getValue("k").equals("name")) {
-                name = attributes.getValue("v").strip()
-                        .replace('“', '"')
-                        .replace('”', '"')
-                        .replace('‘', '\'')
-                        .replace('’', '\'');
-            }
-        }
+        TWO_PASS
+    }
 
-        /**
-         * Called at the end of an element.
-         *
-         * @param uri       The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                  if Namespace processing is not being performed.
-         * @param localName The local name (without prefix), or the empty string if Namespace
-         *                  processing is not being performed.
-         * @param qName     The qualified name (with prefix), or the empty string if qualified names are
-         *                  not available.
-         */
-        @Override
-        public void endElement(String uri, String localName, String qName) {
-            if (qName.equals("way")) {
-                if (validWay && !path.isEmpty()) {
-                    Point from = path.remove();
-                    while (!path.isEmpty()) {
-                        Point to = path.remove();
-                        addEdge(from, to);
-                        addEdge(to, from);
-                        from = to;
-                    }
-                }
-                reset();
-            } else if (qName.equals("node")) {
-                byId.put(id, location);
-                if (!name.isBlank()) {
-                    byName.putIfAbsent(name, new ArrayList<>());
-                    byName.get(name).add(location);
-                }
-                reset();
-            }
+    /**
+     * Adds an edge to this graph if it doesn't already exist, using distance as the weight.
+     */
+    private void addEdge(Point from, Point to) {
+        if (!neighbors.containsKey(from)) {
+            neighbors.put(from, new HashSet<>());
         }
+        neighbors.get(from).add(new Edge<>(from, to, estimatedDistance(from, to)));
     }
 }
@@ -0,0 +1,92 @@
+package huskymaps;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run a load test against a running {@link MapServer}, simulating bursts of users opening the same view at once. Each
+ * round sends a burst of concurrent requests for a viewport that has not been requested before, so every request in
+ * the burst misses the image cache. Reports the latency distribution and the server's cache and coalescing metrics.
+ * <p>
+ * Start the server with {@code IMAGE_SOURCE=stub} to test without network access. Pass the server URL, the number of
+ * concurrent requests per burst and the number of rounds as optional arguments.
+ */
+class MapLoadExperiments {
+    /**
+     * The default server URL.
+     */
+    private static final String SERVER = "http://localhost:8080";
+    /**
+     * Default number of concurrent requests per burst.
+     */
+    private static final int CONCURRENCY = 32;
+    /**
+     * Default number of bursts, each for a new viewport.
+     */
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        String server = args.length > 0 ? args[0] : SERVER;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : CONCURRENCY;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : ROUNDS;
+        HttpClient client = HttpClient.newHttpClient();
+        ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+        // A different start time gives new viewports on each run against the same server.
+        long seed = System.currentTimeMillis() % 100000;
+        List<Long> latencies = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round += 1) {
+            URI uri = URI.create(String.format("%s/map/%f,%f,%d/%dx%d", server,
+                    -122.3 + (seed + round) * 1e-6, 47.655, 14, 800, 600));
+            CountDownLatch ready = new CountDownLatch(1);
+            List<Future<Long>> responses = new ArrayList<>();
+            for (int i = 0; i < concurrency; i += 1) {
+                responses.add(threads.submit(() -> {
+                    ready.await();
+                    long sent = System.nanoTime();
+                    HttpResponse<byte[]> response = client.send(
+                            HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray()
+                    );
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException(uri + " returned " + response.statusCode());
+                    }
+                    return System.nanoTime() - sent;
+                }));
+            }
+            ready.countDown();
+            for (Future<Long> response : responses) {
+                latencies.add(response.get());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        threads.shutdown();
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        System.out.printf("%d requests in %.3f s (%.1f requests/s)%n",
+                sorted.length, seconds, sorted.length / seconds);
+        System.out.printf("latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                sorted[sorted.length - 1] / 1e6);
+        HttpResponse<String> stats = client.send(
+                HttpRequest.newBuilder(URI.create(server + "/cache")).build(), HttpResponse.BodyHandlers.ofString()
+        );
+        System.out.println(stats.body());
+    }
+
+    /**
+     * Returns the given percentile of the sorted latencies in milliseconds.
+     */
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+}
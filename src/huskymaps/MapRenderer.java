@@ -0,0 +1,237 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ImageSource} that draws the street network of a {@link MapGraph} locally, so map images need no network
+ * access. Only the road segments that may cross the viewport are drawn: a {@link KdTree} returns the vertices inside
+ * the viewport expanded by the longest road segment, and each of their segments is drawn once. Optionally, named
+ * places are drawn as labelled dots at close zoom levels, the most important places first.
+ * <p>
+ * Images use the same linear projection as the route overlay in {@link MapServer}.
+ *
+ * @see MapboxImageSource
+ */
+public class MapRenderer implements ImageSource {
+    /**
+     * The minimum zoom level at which place names are drawn.
+     */
+    private static final int MIN_LABEL_ZOOM = 14;
+    /**
+     * Maximum number of place names drawn in one image.
+     */
+    private static final int MAX_LABELS = 50;
+    private static final Color BACKGROUND = new Color(242, 239, 233);
+    private static final Color ROAD_CASING = new Color(200, 196, 188);
+    private static final Color ROAD = new Color(255, 255, 255);
+    private static final Color PLACE = new Color(120, 120, 120);
+    private static final Color LABEL = new Color(60, 60, 60);
+    private static final Color PIN = new Color(220, 60, 50);
+    private static final Font LABEL_FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+
+    private final RoadNetwork network;
+    private final KdTree<Integer> vertices;
+    /**
+     * The largest latitude and longitude extent of any road segment, so that segments with both endpoints outside the
+     * viewport are still found.
+     */
+    private final double maxSegmentLat;
+    private final double maxSegmentLon;
+    private final KdTree<Place> places;
+
+    /**
+     * Orders places from the most important (lowest rank) to the least, and then by name.
+     */
+    private static final Comparator<Place> BY_IMPORTANCE = Comparator.<Place>comparingInt(place -> place.rank)
+            .thenComparing(place -> place.name);
+
+    /**
+     * A named place, its location, and the rank of its importance.
+     */
+    private static class Place {
+        final String name;
+        final Point location;
+        /**
+         * The importance of the place name, where lower values are more important.
+         */
+        final int rank;
+
+        Place(String name, Point location, int rank) {
+            this.name = name;
+            this.location = location;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Constructs a new renderer for the street network of the map graph.
+     *
+     * @param map    the map graph.
+     * @param places true to draw named places.
+     */
+    public MapRenderer(MapGraph map, boolean places) {
+        this.network = map.network();
+        List<Integer> ids = new ArrayList<>(network.size());
+        double maxLat = 0;
+        double maxLon = 0;
+        for (int v = 0; v < network.size(); v += 1) {
+            ids.add(v);
+            for (int e = network.begin(v); e < network.end(v); e += 1) {
+                int w = network.target(e);
+                maxLat = Math.max(maxLat, Math.abs(network.lat(v) - network.lat(w)));
+                maxLon = Math.max(maxLon, Math.abs(network.lon(v) - network.lon(w)));
+            }
+        }
+        this.vertices = new KdTree<>(map.context(), ids, network::point);
+        this.maxSegmentLat = maxLat;
+        this.maxSegmentLon = maxLon;
+        if (places) {
+            List<Place> named = new ArrayList<>();
+            Map<CharSequence, Integer> importance = map.importance();
+            for (Map.Entry<String, List<Point>> entry : map.locations().entrySet()) {
+                // Names without an importance are ranked last, as in search results.
+                int rank = importance.getOrDefault(entry.getKey(), Integer.MAX_VALUE);
+                for (Point location : entry.getValue()) {
+                    named.add(new Place(entry.getKey(), location, rank));
+                }
+            }
+            this.places = new KdTree<>(map.context(), named, place -> place.location);
+        } else {
+            this.places = null;
+        }
+    }
+
+    @Override
+    public BufferedImage image(Point center, int zoom, int width, int height, List<Point> markers) {
+        double lonDPP = MapServer.SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+        double latDPP = MapServer.SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+        double halfLon = width / 2.0 * lonDPP;
+        double halfLat = height / 2.0 * latDPP;
+        double minLat = center.getLat() - halfLat;
+        double maxLat = center.getLat() + halfLat;
+        double minLon = center.getLon() - halfLon;
+        double maxLon = center.getLon() + halfLon;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(0, 0, width, height);
+
+        // Every segment crossing the viewport has an endpoint within one segment extent of it.
+        List<Integer> visible = vertices.range(
+                minLat - maxSegmentLat, maxLat + maxSegmentLat,
+                minLon - maxSegmentLon, maxLon + maxSegmentLon
+        );
+        BitSet found = new BitSet(network.size());
+        for (int v : visible) {
+            found.set(v);
+        }
+        Path2D.Float roads = new Path2D.Float();
+        for (int v : visible) {
+            float x = (float) ((network.lon(v) - center.getLon()) / lonDPP + width / 2.0);
+            float y = (float) ((center.getLat() - network.lat(v)) / latDPP + height / 2.0);
+            for (int e = network.begin(v); e < network.end(v); e += 1) {
+                int w = network.target(e);
+                if (found.get(w) && w < v) {
+                    // Drawn from the other endpoint.
+                    continue;
+                }
+                roads.moveTo(x, y);
+                roads.lineTo(
+                        (float) ((network.lon(w) - center.getLon()) / lonDPP + width / 2.0),
+                        (float) ((center.getLat() - network.lat(w)) / latDPP + height / 2.0)
+                );
+            }
+        }
+        float roadWidth = Math.max(1.0f, (zoom - 9) * 1.5f);
+        g2d.setColor(ROAD_CASING);
+        g2d.setStroke(new BasicStroke(roadWidth + 2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(roads);
+        g2d.setColor(ROAD);
+        g2d.setStroke(new BasicStroke(roadWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(roads);
+
+        if (places != null && zoom >= MIN_LABEL_ZOOM) {
+            drawPlaces(g2d, places.range(minLat, maxLat, minLon, maxLon), center, lonDPP, latDPP, width, height);
+        }
+        for (Point marker : markers) {
+            drawPin(g2d,
+                    (int) ((marker.getLon() - center.getLon()) / lonDPP) + width / 2,
+                    (int) ((center.getLat() - marker.getLat()) / latDPP) + height / 2);
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Draws each place as a dot, labelled with its name unless the label would overlap an earlier one. Places are
+     * drawn from the most important to the least, so the label limit and overlaps drop the least important names.
+     */
+    private static void drawPlaces(Graphics2D g2d, List<Place> visible, Point center, double lonDPP, double latDPP,
+                                   int width, int height) {
+        visible.sort(BY_IMPORTANCE);
+        g2d.setFont(LABEL_FONT);
+        FontMetrics metrics = g2d.getFontMetrics();
+        List<Rectangle2D> labels = new ArrayList<>();
+        for (Place place : visible) {
+            if (labels.size() == MAX_LABELS) {
+                break;
+            }
+            int x = (int) ((place.location.getLon() - center.getLon()) / lonDPP) + width / 2;
+            int y = (int) ((center.getLat() - place.location.getLat()) / latDPP) + height / 2;
+            Rectangle2D label = new Rectangle2D.Double(
+                    x + 5, y - metrics.getAscent() / 2.0, metrics.stringWidth(place.name), metrics.getHeight()
+            );
+            boolean overlaps = false;
+            for (Rectangle2D other : labels) {
+                if (other.intersects(label)) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (overlaps) {
+                continue;
+            }
+            labels.add(label);
+            g2d.setColor(PLACE);
+            g2d.fillOval(x - 2, y - 2, 5, 5);
+            g2d.setColor(LABEL);
+            g2d.drawString(place.name, x + 5, y + metrics.getAscent() / 2);
+        }
+    }
+
+    /**
+     * Draws a map pin whose tip is at the given pixel.
+     *
+     * @param g2d the graphics to draw with.
+     * @param x   the x-coordinate of the tip.
+     * @param y   the y-coordinate of the tip.
+     */
+    static void drawPin(Graphics2D g2d, int x, int y) {
+        Polygon tip = new Polygon(new int[]{x - 4, x + 4, x}, new int[]{y - 10, y - 10, y}, 3);
+        g2d.setColor(PIN);
+        g2d.fillPolygon(tip);
+        g2d.fillOval(x - 6, y - 20, 12, 12);
+        g2d.setColor(ROAD);
+        g2d.fillOval(x - 2, y - 16, 4, 4);
+    }
+
+    @Override
+    public String toString() {
+        return "MapRenderer{" +
+                "vertices=" + vertices.size() +
+                ", places=" + (places == null ? 0 : places.size()) +
+                '}';
+    }
+}
@@ -1,23 +1,41 @@
 package huskymaps;
 
-import graphs.AStarSolver;
+import graphs.AStarGraph;
+import graphs.ReusableAStarSolver;
 import io.javalin.Javalin;
+import io.javalin.core.util.Header;
 import io.javalin.core.validation.JavalinValidation;
 import io.javalin.core.validation.Validator;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.Handler;
+import io.javalin.http.HttpCode;
+import io.javalin.http.HttpResponseException;
 import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.distance.DistanceUtils;
 import org.locationtech.spatial4j.shape.Point;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Run the {@code huskymaps} server.
@@ -38,93 +56,628 @@ public class MapServer {
      * The place-importance TSV data file path from OpenStreetMap.
      */
     private static final String PLACES_PATH = "data/huskymaps/places.tsv.gz";
+    /**
+     * The contraction hierarchy file path, written on first use when routing with {@code ROUTER=ch}.
+     */
+    private static final String CH_PATH = "data/huskymaps/seattle-small.ch";
+    /**
+     * The map snapshot file path, written after parsing and memory-mapped on later starts.
+     */
+    private static final String SNAPSHOT_PATH = "data/huskymaps/seattle-small.snapshot";
+    /**
+     * Number of landmarks when routing with {@code ROUTER=alt}.
+     */
+    private static final int NUM_LANDMARKS = 16;
+    /**
+     * Maximum number of cached routes.
+     */
+    private static final int MAX_CACHED_ROUTES = 10000;
+    /**
+     * Maximum approximate number of bytes used by cached routes.
+     */
+    private static final long MAX_CACHED_ROUTE_BYTES = 64L << 20;
+    /**
+     * Maximum number of cached map images.
+     */
+    private static final int MAX_CACHED_IMAGES = 10000;
+    /**
+     * Maximum number of bytes used by cached PNG-encoded map images.
+     */
+    private static final long MAX_CACHED_IMAGE_BYTES = 256L << 20;
+    /**
+     * Maximum number of cached map tiles.
+     */
+    private static final int MAX_CACHED_TILES = 4096;
+    /**
+     * Maximum number of bytes used by cached decoded map tiles.
+     */
+    private static final long MAX_CACHED_TILE_BYTES = 256L << 20;
+    /**
+     * Number of pixels rendered beyond each map tile edge and cropped, so that place labels are not cut at seams.
+     */
+    private static final int TILE_MARGIN = 128;
+    /**
+     * Default simulated fetch latency in milliseconds when using {@code IMAGE_SOURCE=stub}.
+     */
+    private static final long STUB_LATENCY_MILLIS = 100;
+    /**
+     * Maximum number of routing and encoding tasks waiting for a core when using {@code EXECUTION=virtual}.
+     */
+    private static final int MAX_QUEUED_TASKS = 64;
+    /**
+     * Maximum time in milliseconds for a routing or encoding task, including time spent waiting for a core, when using
+     * {@code EXECUTION=virtual}.
+     */
+    private static final long TASK_TIMEOUT_MILLIS = 2000;
+    /**
+     * Maximum number of sources and of targets in a distance matrix request.
+     */
+    private static final int MAX_MATRIX_POINTS = 100;
+    /**
+     * Maximum number of source and target pairs in a distance matrix request.
+     */
+    private static final int MAX_MATRIX_PAIRS = 2500;
+    /**
+     * Maximum number of distance matrices computed at once. Further requests respond with 503 Service Unavailable.
+     */
+    private static final int MAX_MATRICES = 4;
+    /**
+     * Maximum distance budget in meters for isochrone requests.
+     */
+    private static final double MAX_ISOCHRONE_METERS = 10000;
     /**
      * Maximum number of autocomplete search results.
      */
     private static final int MAX_MATCHES = 10;
+    /**
+     * Maximum edit distance for typo-tolerant search results.
+     */
+    private static final int MAX_EDITS = 2;
+    /**
+     * Number of search term characters per allowed edit, so that short terms do not match nearly every name.
+     */
+    private static final int CHARS_PER_EDIT = 3;
+    /**
+     * Maximum number of location markers drawn on one map image, preferring those closest to the center.
+     */
+    private static final int MAX_MARKERS = 100;
+    /**
+     * Distance in pixels beyond the image edges within which a location's marker may still be partly visible.
+     */
+    private static final int MARKER_MARGIN = 20;
     /**
      * The longitudinal distance per pixel when the map is centered on Seattle.
      */
-    private static final double SEATTLE_ROOT_LONDPP = 0.3515625;
+    static final double SEATTLE_ROOT_LONDPP = 0.3515625;
     /**
      * The latitudinal distance per pixel when the map is centered on Seattle.
      */
-    private static final double SEATTLE_ROOT_LATDPP = 0.23689728184;
+    static final double SEATTLE_ROOT_LATDPP = 0.23689728184;
 
     public static void main(String[] args) throws Exception {
         SpatialContext context = SpatialContext.GEO;
-        MapGraph map = new MapGraph(OSM_DB_PATH, PLACES_PATH, context);
+        // Encode images in memory rather than through temporary files.
+        ImageIO.setUseCache(false);
+        // With EXECUTION=virtual, handlers run on their own threads and CPU-heavy work is bounded to the cores.
+        boolean virtual = System.getenv().getOrDefault("EXECUTION", "jetty").equals("virtual");
+        ExecutorService requests = virtual ? requestThreads() : null;
+        MapGraph map = mapGraph(context);
         Javalin app = Javalin.create(config -> {
             config.addSinglePageRoot("/", "huskymaps/index.html");
         }).start(port());
-        ConcurrentHashMap<String, BufferedImage> cache = new ConcurrentHashMap<>();
-        app.get("/map/{lon},{lat},{zoom}/{width}x{height}", ctx -> {
+        // Work turned away by a bounded pool is reported as overload rather than as a server error.
+        app.exception(RejectedExecutionException.class, (e, ctx) -> {
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+            ctx.header(Header.RETRY_AFTER, "1");
+            ctx.result(e.getMessage());
+        });
+        // Metrics are recorded without locks and read by scraping /metrics.
+        Metrics metrics = new Metrics("huskymaps");
+        Metrics.Histogram locationsStage = stage(metrics, "locations");
+        Metrics.Histogram fetchStage = stage(metrics, "fetch");
+        Metrics.Histogram encodeStage = stage(metrics, "encode");
+        Metrics.Histogram closestStage = stage(metrics, "closest");
+        Metrics.Histogram routeStage = stage(metrics, "route");
+        Metrics.Histogram isochroneStage = stage(metrics, "isochrone");
+        Metrics.Histogram distancesStage = stage(metrics, "distances");
+        Metrics.Histogram overlayStage = stage(metrics, "overlay");
+        Metrics.Histogram respondStage = stage(metrics, "respond");
+        Metrics.Histogram searchStage = stage(metrics, "search");
+        Metrics.Histogram matches = metrics.histogram("search_matches",
+                "Number of autocomplete matches for each search.", Metrics.COUNTS);
+        Metrics.Histogram fuzzyMatches = metrics.histogram("search_fuzzy_results",
+                "Number of typo-tolerant results added to each search.", Metrics.COUNTS);
+        CachingRouter router = new CachingRouter(router(map, metrics), MAX_CACHED_ROUTES, MAX_CACHED_ROUTE_BYTES);
+        ImageSource source = imageSource(map);
+        // Compose viewports from shared tiles by default only when rendering locally, unless set with TILES. With Mapbox,
+        // each uncached viewport needs about a dozen tiles, which costs more upstream calls than one image.
+        boolean tiled = Boolean.parseBoolean(System.getenv().getOrDefault("TILES",
+                Boolean.toString(source instanceof MapRenderer)));
+        TileLayer tiles = tiled
+                ? new TileLayer(context, source, TILE_MARGIN, MAX_CACHED_TILES, MAX_CACHED_TILE_BYTES)
+                : null;
+        ImageSource images = tiles != null ? tiles : source;
+        // Images are cached PNG-encoded, which is several times smaller than the decoded raster.
+        BoundedCache<String, EncodedImage> cache = new BoundedCache<>(MAX_CACHED_IMAGES, MAX_CACHED_IMAGE_BYTES,
+                EncodedImage::length);
+        // Concurrent misses on the same viewport share one fetch.
+        SingleFlight<String, EncodedImage> fetches = new SingleFlight<>();
+        metrics.cache(cache, "images");
+        fetches(metrics, fetches, "images");
+        if (tiles != null) {
+            metrics.cache(tiles.cache(), "tiles");
+            fetches(metrics, tiles.fetches(), "tiles");
+        }
+        metrics.cache(router.cache(), "routes");
+        OverlayRenderer overlays = new OverlayRenderer();
+        BoundedExecutor cpu = virtual
+                ? new BoundedExecutor("cpu", Runtime.getRuntime().availableProcessors(), MAX_QUEUED_TASKS,
+                TASK_TIMEOUT_MILLIS)
+                : null;
+        if (cpu != null) {
+            metrics.gauge("cpu_active_tasks", "Tasks running on the CPU executor.",
+                    () -> cpu.stats().get("active").doubleValue());
+            metrics.gauge("cpu_queued_tasks", "Tasks waiting for a CPU executor thread.",
+                    () -> cpu.stats().get("queued").doubleValue());
+            metrics.counter("cpu_rejected_tasks_total", "Tasks rejected because the CPU executor queue was full.",
+                    () -> cpu.stats().get("rejected").doubleValue());
+            metrics.counter("cpu_timed_out_tasks_total", "Tasks that did not finish within the timeout.",
+                    () -> cpu.stats().get("timedOut").doubleValue());
+        }
+        // Isochrone searches are shared by all request threads, with at most one per core.
+        SearchPool<OneToManySearch> searches = new SearchPool<>(() -> new OneToManySearch(map.network()),
+                Runtime.getRuntime().availableProcessors());
+        app.get("/map/{lon},{lat},{zoom}/{width}x{height}", dispatch(requests, ctx -> {
             double lon = ctx.pathParamAsClass("lon", Double.class).get();
             double lat = ctx.pathParamAsClass("lat", Double.class).get();
             int zoom = ctx.pathParamAsClass("zoom", Integer.class).get();
             int width = ctx.pathParamAsClass("width", Integer.class).get();
             int height = ctx.pathParamAsClass("height", Integer.class).get();
             Point center = context.getShapeFactory().pointLatLon(lat, lon);
-            BufferedImage image = cache.get(ctx.path());
-            List<Point> locations = map.getLocations(ctx.queryParam("term"), center);
-            if (image == null || !locations.isEmpty()) {
-                // Only make an API call if the cached image is not available/matches or locations are requested.
-                image = ImageIO.read(url(center, zoom, width, height, locations));
-                if (locations.isEmpty()) {
-                    cache.putIfAbsent(ctx.path(), image);
-                }
-            }
+            long started = System.nanoTime();
+            // Only markers that may be visible are drawn, so the lookup skips locations outside the image.
+            double lonDPP = SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+            double latDPP = SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+            double halfLon = (width / 2.0 + MARKER_MARGIN) * lonDPP;
+            double halfLat = (height / 2.0 + MARKER_MARGIN) * latDPP;
+            List<Point> locations = map.getLocations(ctx.queryParam("term"), center, MAX_MARKERS,
+                    lat - halfLat, lat + halfLat, lon - halfLon, lon + halfLon);
+            locationsStage.observeSince(started);
             Validator<Double> startLon = ctx.queryParamAsClass("startLon", Double.class);
             Validator<Double> startLat = ctx.queryParamAsClass("startLat", Double.class);
             Validator<Double> goalLon = ctx.queryParamAsClass("goalLon", Double.class);
             Validator<Double> goalLat = ctx.queryParamAsClass("goalLat", Double.class);
-            if (JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty()) {
+            boolean routed = JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty();
+            Validator<Double> isoLon = ctx.queryParamAsClass("isoLon", Double.class);
+            Validator<Double> isoLat = ctx.queryParamAsClass("isoLat", Double.class);
+            Validator<Double> isoMeters = ctx.queryParamAsClass("isoMeters", Double.class)
+                    .check(meters -> meters > 0 && meters <= MAX_ISOCHRONE_METERS, "out of range");
+            boolean reachable = JavalinValidation.collectErrors(isoLon, isoLat, isoMeters).isEmpty();
+            EncodedImage base = cache.get(ctx.path());
+            if (base == null) {
+                base = fetches.get(ctx.path(), () -> {
+                    // Another request may have cached the image after this request missed but before it got here.
+                    EncodedImage cached = cache.get(ctx.path());
+                    if (cached != null) {
+                        return cached;
+                    }
+                    long fetchStarted = System.nanoTime();
+                    BufferedImage image = images.image(center, zoom, width, height, List.of());
+                    fetchStage.observeSince(fetchStarted);
+                    long encodeStarted = System.nanoTime();
+                    EncodedImage fetched = compute(cpu, () -> EncodedImage.encode(image));
+                    encodeStage.observeSince(encodeStarted);
+                    cache.put(ctx.path(), fetched);
+                    return fetched;
+                });
+            }
+            if (!routed && !reachable && locations.isEmpty()) {
+                // Serve the encoded bytes without decoding or encoding the image again.
+                started = System.nanoTime();
+                respond(ctx, base);
+                respondStage.observeSince(started);
+                return;
+            }
+            List<Point> route = List.of();
+            if (routed) {
                 // Overlay route if the route start and goal are defined.
-                Point start = context.getShapeFactory().pointLatLon(startLat.get(), startLon.get());
-                Point goal = context.getShapeFactory().pointLatLon(goalLat.get(), goalLon.get());
-                List<Point> route = new AStarSolver<>(map, map.closest(start), map.closest(goal)).solution();
-                // Convert route to xPoints and yPoints for Graphics2D.drawPolyline
-                double lonDPP = SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
-                double latDPP = SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
-                int[] xPoints = new int[route.size()];
-                int[] yPoints = new int[route.size()];
-                int i = 0;
-                for (Point location : route) {
-                    xPoints[i] = (int) ((location.getLon() - center.getLon()) * (1 / lonDPP)) + (width / 2);
-                    yPoints[i] = (int) ((center.getLat() - location.getLat()) * (1 / latDPP)) + (height / 2);
-                    i += 1;
-                }
-                // Create a copy of the image to avoid modifying cached image
-                image = new BufferedImage(
-                        image.getColorModel(),
-                        image.copyData(null),
-                        image.isAlphaPremultiplied(),
-                        null
-                );
-                Graphics2D g2d = image.createGraphics();
-                // Draw route outline
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2d.setColor(new Color(255, 255, 255));
-                g2d.setStroke(new BasicStroke(10.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g2d.drawPolyline(xPoints, yPoints, xPoints.length);
-                // Draw route on top of outline
-                g2d.setColor(new Color(108, 181, 230));
-                g2d.setStroke(new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g2d.drawPolyline(xPoints, yPoints, xPoints.length);
-                g2d.dispose();
-            }
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", os);
-            ctx.result(Base64.getEncoder().encode(os.toByteArray()));
-        });
-        app.get("/search", ctx -> {
-            List<CharSequence> result = map.getLocationsByPrefix(ctx.queryParam("term"));
-            if (result.size() > MAX_MATCHES) {
-                ctx.json(result.subList(0, MAX_MATCHES));
+                started = System.nanoTime();
+                Point start = map.closest(context.getShapeFactory().pointLatLon(startLat.get(), startLon.get()));
+                Point goal = map.closest(context.getShapeFactory().pointLatLon(goalLat.get(), goalLon.get()));
+                closestStage.observeSince(started);
+                started = System.nanoTime();
+                route = compute(cpu, () -> router.route(start, goal));
+                routeStage.observeSince(started);
+            }
+            List<List<Point>> polylines = List.of();
+            if (reachable) {
+                // Overlay the streets reachable within the budget if the isochrone source and budget are defined.
+                started = System.nanoTime();
+                Point origin = map.closest(context.getShapeFactory().pointLatLon(isoLat.get(), isoLon.get()));
+                closestStage.observeSince(started);
+                double budget = isoMeters.get() / 1000 * DistanceUtils.KM_TO_DEG;
+                started = System.nanoTime();
+                polylines = compute(cpu, () -> searches.apply(
+                        search -> search.isochrone(map.network().id(origin), budget).polylines()
+                ));
+                isochroneStage.observeSince(started);
+            }
+            if (cpu == null) {
+                // Markers are drawn locally so that search results share the cached base image.
+                started = System.nanoTime();
+                OverlayRenderer.PngBuffer png = overlays.render(base, center, zoom, polylines, locations, route);
+                overlayStage.observeSince(started);
+                started = System.nanoTime();
+                respond(ctx, png.array(), png.size(), null);
+                respondStage.observeSince(started);
             } else {
-                ctx.json(result);
+                // The pool thread's output buffer is reused by its next task, so the bytes are copied out.
+                EncodedImage encoded = base;
+                List<List<Point>> lines = polylines;
+                List<Point> path = route;
+                started = System.nanoTime();
+                byte[] png = cpu.call(() -> {
+                    OverlayRenderer.PngBuffer buffer = overlays.render(encoded, center, zoom, lines, locations, path);
+                    return Arrays.copyOf(buffer.array(), buffer.size());
+                });
+                overlayStage.observeSince(started);
+                started = System.nanoTime();
+                respond(ctx, png, png.length, null);
+                respondStage.observeSince(started);
             }
-        });
+        }));
+        // Rows run on their own core-sized pool rather than the CPU executor, whose threads would block on them.
+        DistanceMatrix matrix = new DistanceMatrix(map.network(), Runtime.getRuntime().availableProcessors(),
+                MAX_MATRICES);
+        app.get("/distances", dispatch(requests, ctx -> {
+            List<Point> sourceLocations = points(context, ctx, "source");
+            List<Point> targetLocations = points(context, ctx, "target");
+            if (sourceLocations.size() * targetLocations.size() > MAX_MATRIX_PAIRS) {
+                throw new BadRequestResponse("Expected at most " + MAX_MATRIX_PAIRS + " source and target pairs");
+            }
+            long started = System.nanoTime();
+            List<Point> sources = snap(map, sourceLocations);
+            List<Point> targets = snap(map, targetLocations);
+            closestStage.observeSince(started);
+            started = System.nanoTime();
+            double[][] distances = matrix.distances(ids(map, sources), ids(map, targets));
+            distancesStage.observeSince(started);
+            // Unreachable pairs are null since JSON has no infinity.
+            List<List<Double>> meters = new ArrayList<>(distances.length);
+            for (double[] row : distances) {
+                List<Double> result = new ArrayList<>(row.length);
+                for (double distance : row) {
+                    result.add(distance < Double.POSITIVE_INFINITY ? distance * DistanceUtils.DEG_TO_KM * 1000 : null);
+                }
+                meters.add(result);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("sources", lonLats(sources));
+            result.put("targets", lonLats(targets));
+            result.put("meters", meters);
+            ctx.json(result);
+        }));
+        app.get("/isochrone", dispatch(requests, ctx -> {
+            double lon = ctx.queryParamAsClass("lon", Double.class).get();
+            double lat = ctx.queryParamAsClass("lat", Double.class).get();
+            double meters = ctx.queryParamAsClass("meters", Double.class)
+                    .check(value -> value > 0 && value <= MAX_ISOCHRONE_METERS, "out of range").get();
+            long started = System.nanoTime();
+            Point origin = map.closest(context.getShapeFactory().pointLatLon(lat, lon));
+            closestStage.observeSince(started);
+            started = System.nanoTime();
+            Isochrone isochrone = compute(cpu, () -> searches.apply(search -> search.isochrone(
+                    map.network().id(origin), meters / 1000 * DistanceUtils.KM_TO_DEG
+            )));
+            isochroneStage.observeSince(started);
+            List<List<double[]>> polylines = new ArrayList<>(isochrone.polylines().size());
+            for (List<Point> polyline : isochrone.polylines()) {
+                polylines.add(lonLats(polyline));
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("source", new double[]{origin.getLon(), origin.getLat()});
+            result.put("meters", meters);
+            result.put("vertices", lonLats(isochrone.vertices()));
+            result.put("polylines", polylines);
+            ctx.json(result);
+        }));
+        app.get("/search", dispatch(requests, ctx -> {
+            long started = System.nanoTime();
+            String term = ctx.queryParam("term");
+            List<CharSequence> result = map.getLocationsByPrefix(term, MAX_MATCHES);
+            int count = map.countLocationsByPrefix(term);
+            if (result.size() < MAX_MATCHES && term != null) {
+                // Fill the remaining results with names that match the term after a few typos are corrected.
+                int edits = Math.min(MAX_EDITS, term.length() / CHARS_PER_EDIT);
+                for (CharSequence name : map.getLocationsByFuzzyPrefix(term, edits, MAX_MATCHES + result.size())) {
+                    if (result.size() == MAX_MATCHES) {
+                        break;
+                    } else if (!result.contains(name)) {
+                        result.add(name);
+                    }
+                }
+            }
+            searchStage.observeSince(started);
+            matches.observe(count);
+            fuzzyMatches.observe(result.size() - Math.min(count, MAX_MATCHES));
+            ctx.json(result);
+        }));
+        app.get("/cache", dispatch(requests, ctx -> {
+            Map<String, Number> imageStats = cache.stats();
+            imageStats.put("fetches", fetches.loads());
+            imageStats.put("coalesced", fetches.coalesced());
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("images", imageStats);
+            if (tiles != null) {
+                Map<String, Number> tileStats = tiles.cache().stats();
+                tileStats.put("fetches", tiles.fetches().loads());
+                tileStats.put("coalesced", tiles.fetches().coalesced());
+                stats.put("tiles", tileStats);
+            }
+            stats.put("routes", router.cache().stats());
+            if (cpu != null) {
+                stats.put("cpu", cpu.stats());
+            }
+            ctx.json(stats);
+        }));
+        // Metrics expose traffic and capacity, so they are only served to a scraper on the same machine.
+        app.before("/metrics", MapServer::requireLoopback);
+        app.get("/metrics", dispatch(requests, ctx -> {
+            ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+            ctx.result(metrics.text());
+        }));
+    }
+
+    /**
+     * Returns a new latency histogram for the given stage of request handling.
+     *
+     * @param metrics the metrics registry.
+     * @param stage   the name of the stage, used as the {@code stage} label.
+     * @return the latency histogram for the stage.
+     */
+    private static Metrics.Histogram stage(Metrics metrics, String stage) {
+        return metrics.histogram("stage_seconds", "Time spent in each stage of request handling.", Metrics.SECONDS,
+                "stage", stage);
+    }
+
+    /**
+     * Registers counters for the loads and coalesced loads of the fetch coalescer.
+     *
+     * @param metrics the metrics registry.
+     * @param fetches the fetch coalescer.
+     * @param name    the name of the cache in front of the coalescer, used as the {@code cache} label.
+     */
+    private static void fetches(Metrics metrics, SingleFlight<?, ?> fetches, String name) {
+        metrics.counter("fetches_total", "Cache misses that ran a fetch.", fetches::loads, "cache", name);
+        metrics.counter("coalesced_fetches_total", "Cache misses that waited for a fetch already in flight.",
+                fetches::coalesced, "cache", name);
+    }
+
+    /**
+     * Rejects the request with 403 Forbidden unless it was sent from a loopback address. Forwarding headers are
+     * ignored since any client can set them.
+     *
+     * @param ctx the request context.
+     * @throws ForbiddenResponse if the request was not sent from a loopback address.
+     */
+    private static void requireLoopback(Context ctx) {
+        try {
+            // The remote address is a literal IP address, so no name lookup is made.
+            if (InetAddress.getByName(ctx.req.getRemoteAddr()).isLoopbackAddress()) {
+                return;
+            }
+        } catch (UnknownHostException e) {
+            // Fall through and reject the request.
+        }
+        throw new ForbiddenResponse("Only available from the local machine");
+    }
+
+    /**
+     * Returns the locations in the repeated query parameter, each given as {@code lon,lat}.
+     *
+     * @param context the spatial context.
+     * @param ctx     the request context.
+     * @param name    the name of the query parameter.
+     * @return the locations in the query parameter.
+     * @throws BadRequestResponse if there are no locations, too many locations, or an invalid location.
+     */
+    private static List<Point> points(SpatialContext context, Context ctx, String name) {
+        List<String> values = ctx.queryParams(name);
+        if (values.isEmpty() || values.size() > MAX_MATRIX_POINTS) {
+            throw new BadRequestResponse("Expected 1 to " + MAX_MATRIX_POINTS + " " + name + " locations");
+        }
+        List<Point> result = new ArrayList<>(values.size());
+        for (String value : values) {
+            String[] lonLat = value.split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException();
+                }
+                result.add(context.getShapeFactory().pointLatLon(
+                        Double.parseDouble(lonLat[1]), Double.parseDouble(lonLat[0])
+                ));
+            } catch (NumberFormatException e) {
+                throw new BadRequestResponse("Invalid " + name + " location: " + value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the street vertex closest to each location.
+     */
+    private static List<Point> snap(MapGraph map, List<Point> locations) {
+        List<Point> result = new ArrayList<>(locations.size());
+        for (Point location : locations) {
+            result.add(map.closest(location));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the network vertex id of each street vertex.
+     */
+    private static int[] ids(MapGraph map, List<Point> vertices) {
+        int[] result = new int[vertices.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = map.network().id(vertices.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns each location as a {@code [lon, lat]} pair for JSON responses.
+     */
+    private static List<double[]> lonLats(List<Point> locations) {
+        List<double[]> result = new ArrayList<>(locations.size());
+        for (Point location : locations) {
+            result.add(new double[]{location.getLon(), location.getLat()});
+        }
+        return result;
+    }
+
+    /**
+     * Returns a handler that runs the given handler on a thread from the request executor, releasing the server thread
+     * while the request is handled. Requests rejected by a {@link BoundedExecutor} respond with 503 Service
+     * Unavailable.
+     *
+     * @param requests the request executor, or null to run the handler on the server thread.
+     * @param handler  the handler.
+     * @return the dispatching handler.
+     */
+    private static Handler dispatch(ExecutorService requests, Handler handler) {
+        if (requests == null) {
+            return handler;
+        }
+        return ctx -> {
+            DeferredFuture done = new DeferredFuture();
+            // In Javalin 4.0.0, setting a result replaces the context's result future, which the servlet reads after
+            // this handler returns and again after starting async processing, before it calls exceptionally on the
+            // future. The handler therefore starts only once that first dependent stage is created. This relies on
+            // the servlet internals of that version and must be checked when upgrading Javalin.
+            done.onSubscribe(() -> requests.execute(() -> {
+                try {
+                    handler.handle(ctx);
+                    done.complete(null);
+                } catch (RejectedExecutionException e) {
+                    ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+                    ctx.header(Header.RETRY_AFTER, "1");
+                    ctx.result(e.getMessage());
+                    done.complete(null);
+                } catch (HttpResponseException e) {
+                    // Javalin only maps exceptions thrown on the server thread, such as invalid parameters.
+                    ctx.status(e.getStatus());
+                    ctx.result(e.getMessage());
+                    done.complete(null);
+                } catch (Throwable e) {
+                    done.completeExceptionally(e);
+                }
+            }));
+            ctx.future(done, result -> {
+                // The handler has already written the response.
+            });
+        };
+    }
+
+    /**
+     * Future that runs an action when the first dependent stage is created from it.
+     */
+    private static class DeferredFuture extends CompletableFuture<Void> {
+        private final AtomicReference<Runnable> action = new AtomicReference<>();
+
+        /**
+         * Sets the action to run when the first dependent stage is created.
+         *
+         * @param action the action.
+         */
+        void onSubscribe(Runnable action) {
+            this.action.set(action);
+        }
+
+        @Override
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            Runnable first = action.getAndSet(null);
+            if (first != null) {
+                first.run();
+            }
+            return new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Returns the result of the task, run on the executor if there is one or on the current thread otherwise.
+     *
+     * @param cpu  the executor for CPU-heavy work, or null.
+     * @param task the task.
+     * @param <V>  the type of the result.
+     * @return the result of the task.
+     * @throws IOException if the task failed.
+     */
+    private static <V> V compute(BoundedExecutor cpu, BoundedExecutor.Task<V> task) throws IOException {
+        return cpu != null ? cpu.call(task) : task.call();
+    }
+
+    /**
+     * Returns an executor that runs each request on a new virtual thread. The {@code newVirtualThreadPerTaskExecutor}
+     * factory of {@link Executors} is final only from Java 21, and in Java 19 and 20 it is a preview API that fails
+     * unless preview features are enabled. The project does not pin a JDK and Javalin 4 runs on Java 11, so a direct
+     * call would not compile on the older JDKs that the server otherwise supports. The factory is therefore looked up
+     * reflectively, and the server refuses to start where it is missing or fails rather than running each request on
+     * an unbounded pool of platform threads.
+     *
+     * @return the request executor.
+     * @throws IllegalStateException if the runtime does not support virtual threads.
+     */
+    private static ExecutorService requestThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EXECUTION=virtual requires virtual threads, which are available from "
+                    + "Java 21; use EXECUTION=jetty on " + Runtime.version(), e);
+        }
+    }
+
+    /**
+     * Writes the image to the response.
+     *
+     * @param ctx   the request context.
+     * @param image the encoded image.
+     * @throws IOException if the response cannot be written.
+     * @see #respond(Context, byte[], int, String)
+     */
+    private static void respond(Context ctx, EncodedImage image) throws IOException {
+        respond(ctx, image.bytes(), image.length(), image.etag());
+    }
+
+    /**
+     * Writes the PNG bytes directly to the response stream. With {@code format=png}, the response is the binary PNG
+     * with an entity tag, or 304 Not Modified if it matches the {@code If-None-Match} request header. Otherwise, the
+     * response is the Base64-encoded PNG, encoded while streaming.
+     *
+     * @param ctx    the request context.
+     * @param png    the array containing the PNG bytes.
+     * @param length the number of PNG bytes at the start of the array.
+     * @param etag   the entity tag of the PNG bytes, or null to compute it if needed.
+     * @throws IOException if the response cannot be written.
+     */
+    private static void respond(Context ctx, byte[] png, int length, String etag) throws IOException {
+        if ("png".equals(ctx.queryParam("format"))) {
+            if (etag == null) {
+                etag = EncodedImage.etag(png, 0, length);
+            }
+            ctx.header(Header.ETAG, etag);
+            if (etag.equals(ctx.header(Header.IF_NONE_MATCH))) {
+                ctx.status(HttpCode.NOT_MODIFIED);
+                return;
+            }
+            ctx.contentType("image/png");
+            ctx.res.setContentLength(length);
+            ctx.res.getOutputStream().write(png, 0, length);
+            return;
+        }
+        try (OutputStream out = Base64.getEncoder().wrap(ctx.res.getOutputStream())) {
+            out.write(png, 0, length);
+        }
     }
 
     /**
@@ -141,38 +694,161 @@ public class MapServer {
     }
 
     /**
-     * Return the API URL for retrieving the map image.
-     *
-     * @param center    the center of the map image.
-     * @param width     the width of the window.
-     * @param height    the height of the window.
-     * @param locations the list of locations (or null).
-     * @return the URL for retrieving the map image.
-     * @throws MalformedURLException if the URL is invalid.
-     */
-    private static URL url(Point center, int zoom, int width, int height, List<Point> locations)
-            throws MalformedURLException {
-        String markers = "";
-        if (locations != null && !locations.isEmpty()) {
-            markers = locations.stream().map(location -> String.format(
-                    "pin-s(%f,%f)", location.getLon(), location.getLat()
-            )).collect(Collectors.joining(","));
-            markers += "/";
-        }
-        return new URL(String.format(
-                "https://api.mapbox.com/"
-                        // {username}/{style_id} and {overlay} (must include trailing slash)
-                        + "styles/v1/%s/%s/static/%s"
-                        // {lon},{lat},{zoom}/{width}x{height}{@2x}
-                        + "%f,%f,%d/%dx%d%s"
-                        // Access token and optional parameters
-                        + "?access_token=%s&logo=false&attribution=false",
-                System.getenv().getOrDefault("USERNAME", "mapbox"),
-                System.getenv().getOrDefault("STYLE_ID", "streets-v11"),
-                markers,
-                center.getLon(), center.getLat(), zoom,
-                (int) Math.ceil(width / 2.), (int) Math.ceil(height / 2.), "@2x",
-                System.getenv("TOKEN")
-        ));
+     * Returns the street network representation, selected with the {@code STORAGE} environment variable.
+     *
+     * @return the street network representation.
+     * @see MapGraph.Storage
+     */
+    private static MapGraph.Storage storage() {
+        return MapGraph.Storage.valueOf(System.getenv().getOrDefault("STORAGE", "CSR"));
+    }
+
+    /**
+     * Returns the strategy for reading the OSM file, selected with the {@code INGESTION} environment variable.
+     *
+     * @return the strategy for reading the OSM file.
+     * @see MapGraph.Ingestion
+     */
+    private static MapGraph.Ingestion ingestion() {
+        return MapGraph.Ingestion.valueOf(System.getenv().getOrDefault("INGESTION", "TWO_PASS"));
+    }
+
+    /**
+     * Returns the map graph, memory-mapped from {@link #SNAPSHOT_PATH} if it is current for the source files.
+     * Otherwise, parses the source files and writes a new snapshot for the next start. Snapshots always use
+     * {@link MapGraph.Storage#CSR}, so they are skipped when another representation is selected.
+     *
+     * @param context the spatial context.
+     * @return the map graph.
+     * @throws Exception if the source files cannot be parsed.
+     */
+    private static MapGraph mapGraph(SpatialContext context) throws Exception {
+        MapGraph.Storage storage = storage();
+        if (storage != MapGraph.Storage.CSR) {
+            return new MapGraph(OSM_DB_PATH, PLACES_PATH, context, storage, ingestion());
+        }
+        if (MapSnapshot.isCurrent(SNAPSHOT_PATH, OSM_DB_PATH, PLACES_PATH)) {
+            try {
+                return MapSnapshot.read(SNAPSHOT_PATH, context);
+            } catch (IOException e) {
+                // Fall back to parsing the source files if the snapshot is unreadable.
+            }
+        }
+        MapGraph map = new MapGraph(OSM_DB_PATH, PLACES_PATH, context, storage, ingestion());
+        try {
+            MapSnapshot.write(map, SNAPSHOT_PATH);
+        } catch (IOException ignored) {
+            // Parsing is repeated on the next start if the file system is read-only.
+        }
+        return map;
+    }
+
+    /**
+     * Returns the source of base map images, selected with the {@code IMAGE_SOURCE} environment variable:
+     * {@code mapbox} for {@link MapboxImageSource}, {@code local} for a {@link MapRenderer} of the map graph, or
+     * {@code stub} for a {@link StubImageSource} whose latency is set by the {@code STUB_LATENCY_MS} environment
+     * variable.
+     *
+     * @param map the map graph.
+     * @return the source of base map images.
+     */
+    private static ImageSource imageSource(MapGraph map) {
+        String source = System.getenv().getOrDefault("IMAGE_SOURCE", "mapbox");
+        if (source.equals("local")) {
+            return new MapRenderer(map, true);
+        } else if (source.equals("stub")) {
+            String latency = System.getenv("STUB_LATENCY_MS");
+            return new StubImageSource(latency != null ? Long.parseLong(latency) : STUB_LATENCY_MILLIS);
+        }
+        return new MapboxImageSource();
+    }
+
+    /**
+     * Returns the router for the map graph, selected with the {@code ROUTER} environment variable: {@code astar} for
+     * {@link ReusableAStarSolver}, {@code alt} for {@link ReusableAStarSolver} guided by a {@link LandmarkHeuristic},
+     * {@code simplified} for A* over a {@link SimplifiedNetwork} with degree-2 chains collapsed, or {@code ch} for a
+     * {@link ContractionHierarchy} read from (or written to) {@link #CH_PATH}.
+     *
+     * @param map     the map graph.
+     * @param metrics the metrics registry for recording the number of vertices settled by each search.
+     * @return the router for the map graph.
+     */
+    private static Router router(MapGraph map, Metrics metrics) {
+        String router = System.getenv().getOrDefault("ROUTER", "astar");
+        if (router.equals("ch")) {
+            ContractionHierarchy ch;
+            try {
+                ch = ContractionHierarchy.read(map.network(), CH_PATH);
+            } catch (IOException e) {
+                ch = ContractionHierarchy.build(map.network());
+                try {
+                    ch.write(CH_PATH);
+                } catch (IOException ignored) {
+                    // Preprocessing is repeated on the next start if the file system is read-only.
+                }
+            }
+            // Queries are shared by all request threads, with at most one per core.
+            SearchPool<ContractionHierarchy.Query> queries = new SearchPool<>(ch::query,
+                    Runtime.getRuntime().availableProcessors());
+            Metrics.Histogram settled = settled(metrics, router);
+            return (start, goal) -> route(queries, query -> {
+                List<Point> route = query.route(start, goal);
+                settled.observe(query.settledCount());
+                return route;
+            });
+        }
+        if (router.equals("simplified")) {
+            SimplifiedNetwork simplified = SimplifiedNetwork.build(map.network());
+            SearchPool<SimplifiedNetwork.Query> queries = new SearchPool<>(simplified::query,
+                    Runtime.getRuntime().availableProcessors());
+            Metrics.Histogram settled = settled(metrics, router);
+            return (start, goal) -> route(queries, query -> {
+                List<Point> route = query.route(start, goal);
+                settled.observe(query.settledCount());
+                return route;
+            });
+        }
+        AStarGraph<Point> graph = router.equals("alt")
+                ? new LandmarkHeuristic(map.network(), NUM_LANDMARKS, LandmarkHeuristic.Selection.FARTHEST, 0)
+                : map;
+        // Each request thread reuses its own solver tables across routing queries.
+        ThreadLocal<ReusableAStarSolver<Point>> solvers =
+                ThreadLocal.withInitial(() -> new ReusableAStarSolver<>(graph));
+        Metrics.Histogram settled = settled(metrics, router);
+        return (start, goal) -> {
+            ReusableAStarSolver<Point> solver = solvers.get();
+            List<Point> route = solver.solution(start, goal);
+            settled.observe(solver.settledCount());
+            return route;
+        };
+    }
+
+    /**
+     * Returns the route found by applying the function to a query borrowed from the pool.
+     *
+     * @param queries  the pool of route queries.
+     * @param function the function that finds the route with a query.
+     * @param <Q>      the type of the queries.
+     * @return the route.
+     * @throws CancellationException if interrupted while waiting for a query.
+     */
+    private static <Q> List<Point> route(SearchPool<Q> queries, Function<? super Q, List<Point>> function) {
+        try {
+            return queries.apply(function);
+        } catch (InterruptedIOException e) {
+            throw new CancellationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a new histogram of the number of vertices settled by each route search.
+     *
+     * @param metrics the metrics registry.
+     * @param router  the name of the router, used as the {@code router} label.
+     * @return the histogram of settled vertices.
+     */
+    private static Metrics.Histogram settled(Metrics metrics, String router) {
+        return metrics.histogram("route_settled_vertices", "Vertices settled by each route search that missed the "
+                + "route cache.", Metrics.COUNTS, "router", router);
     }
 }
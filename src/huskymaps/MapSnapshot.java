@@ -0,0 +1,313 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.exception.InvalidShapeException;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary snapshot of a parsed {@link MapGraph} for fast startup. The street network arrays are stored in the same
+ * layout as {@link RoadNetwork} uses in memory, so opening a snapshot memory-maps them instead of reading them: the
+ * network stays off-heap in the page cache and startup skips OSM parsing entirely. Named locations and place
+ * importance follow the network and are read onto the heap for the autocomplete engine.
+ * <p>
+ * The spatial indexes are stored in their arranged order, so opening a snapshot neither searches for the largest
+ * strongly connected component nor rearranges any points, and names are stored in sorted order so the autocomplete
+ * engine does not sort them again.
+ * <p>
+ * File layout (big-endian): a fixed header, which identifies the source files by the SHA-256 digests of their contents
+ * as read by {@link MapGraph}; the latitude and longitude {@code double} arrays; the CSR offset and
+ * target {@code int} arrays; the weight {@code float} array; the location index {@code int} array; the routable vertex
+ * ids in spatial index order; and finally the source paths, named locations and place importance.
+ *
+ * @see MapGraph
+ * @see RoadNetwork
+ */
+public class MapSnapshot {
+    /**
+     * Identifies a map snapshot file.
+     */
+    private static final int MAGIC = 0x484d5331;
+    /**
+     * The snapshot format version, incremented whenever the layout changes.
+     */
+    private static final int VERSION = 3;
+    /**
+     * The number of bytes in the digest of each source file.
+     */
+    private static final int DIGEST_BYTES = 32;
+    /**
+     * The size of the fixed header in bytes.
+     */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * DIGEST_BYTES + 4 * Integer.BYTES;
+
+    private MapSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given map graph to the given file. The snapshot is written to a temporary file in the
+     * same directory and then moved into place, so a crash or a concurrent start never observes a partial snapshot.
+     *
+     * @param map  the map graph.
+     * @param path the path to the destination file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(MapGraph map, String path) throws IOException {
+        writeAtomically(path, out -> write(map, out));
+    }
+
+    /**
+     * Writes a file with the given output function. The file is written to a temporary file in the same directory and
+     * then moved into place, so a crash or a concurrent reader never observes a partial file.
+     *
+     * @param path   the path to the destination file.
+     * @param output writes the contents of the file.
+     * @throws IOException if the file cannot be written.
+     */
+    static void writeAtomically(String path, Output output) throws IOException {
+        Path target = Path.of(path).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.write(out);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the contents of a file.
+     *
+     * @see #writeAtomically(String, Output)
+     */
+    @FunctionalInterface
+    interface Output {
+        /**
+         * Writes the contents of the file to the stream.
+         *
+         * @param out the stream for the file.
+         * @throws IOException if the contents cannot be written.
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void write(MapGraph map, DataOutputStream out) throws IOException {
+        RoadNetwork network = map.network();
+        IntBuffer index = network.index();
+        List<Point> routable = map.vertexIndex().items();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(digest(map.osmPath()));
+        out.write(digest(map.placesPath()));
+        out.writeInt(network.size());
+        out.writeInt(network.edgeCount());
+        out.writeInt(index.limit());
+        out.writeInt(routable.size());
+        for (int v = 0; v < network.size(); v += 1) {
+            out.writeDouble(network.lat(v));
+        }
+        for (int v = 0; v < network.size(); v += 1) {
+            out.writeDouble(network.lon(v));
+        }
+        for (int v = 0; v <= network.size(); v += 1) {
+            out.writeInt(v < network.size() ? network.begin(v) : network.edgeCount());
+        }
+        for (int e = 0; e < network.edgeCount(); e += 1) {
+            out.writeInt(network.target(e));
+        }
+        for (int e = 0; e < network.edgeCount(); e += 1) {
+            out.writeFloat(network.weight(e));
+        }
+        for (int i = 0; i < index.limit(); i += 1) {
+            out.writeInt(index.get(i));
+        }
+        for (Point vertex : routable) {
+            out.writeInt(network.id(vertex));
+        }
+        writeString(out, map.osmPath());
+        writeString(out, map.placesPath());
+        // Names are written in sorted order and locations in the order of their spatial indexes.
+        List<String> names = new ArrayList<>(map.locations().keySet());
+        Collections.sort(names);
+        out.writeInt(names.size());
+        for (String name : names) {
+            List<Point> locations = map.locationIndex(name).items();
+            writeString(out, name);
+            out.writeInt(locations.size());
+            for (Point location : locations) {
+                out.writeDouble(location.getLat());
+                out.writeDouble(location.getLon());
+            }
+        }
+        Map<CharSequence, Integer> importance = map.importance();
+        out.writeInt(importance.size());
+        for (Map.Entry<CharSequence, Integer> entry : importance.entrySet()) {
+            writeString(out, entry.getKey().toString());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Returns true if the snapshot file exists and was written from the current contents of the given source files.
+     * The sources are read the same way {@link MapGraph} reads them, so snapshots of sources loaded from the class path
+     * are also invalidated when the sources change.
+     *
+     * @param path       the path to the snapshot file.
+     * @param osmPath    the path to the gzipped OSM (XML) file.
+     * @param placesPath the path to the gzipped places TSV file.
+     * @return true if the snapshot is up to date.
+     */
+    public static boolean isCurrent(String path, String osmPath, String placesPath) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            byte[] osm = new byte[DIGEST_BYTES];
+            byte[] places = new byte[DIGEST_BYTES];
+            in.readFully(osm);
+            in.readFully(places);
+            return Arrays.equals(osm, digest(osmPath)) && Arrays.equals(places, digest(placesPath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the SHA-256 digest of the contents of the source file at the given path.
+     */
+    private static byte[] digest(String path) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = MapGraph.fileStream(path)) {
+            byte[] buffer = new byte[1 << 16];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                sha.update(buffer, 0, read);
+            }
+        }
+        return sha.digest();
+    }
+
+    /**
+     * Opens the snapshot in the given file, memory-mapping its street network.
+     *
+     * @param path    the path to a file written by {@link #write(MapGraph, String)}.
+     * @param context the spatial context for the map graph.
+     * @return the map graph stored in the snapshot.
+     * @throws IOException if the file cannot be read, is not a snapshot, or is truncated or corrupt.
+     */
+    public static MapGraph read(String path, SpatialContext context) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            return read(path, channel, context);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | InvalidShapeException e) {
+            throw new IOException(path + " is a corrupt map snapshot", e);
+        }
+    }
+
+    private static MapGraph read(String path, FileChannel channel, SpatialContext context) throws IOException {
+        ByteBuffer header = map(channel, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException(path + " is not a map snapshot");
+        }
+        header.position(header.position() + 2 * DIGEST_BYTES);
+        int n = header.getInt();
+        int m = header.getInt();
+        int tableSize = header.getInt();
+        int routable = header.getInt();
+        // The mappings remain valid after the channel is closed.
+        long position = HEADER_BYTES;
+        ByteBuffer lats = map(channel, position, (long) Double.BYTES * n);
+        position += (long) Double.BYTES * n;
+        ByteBuffer lons = map(channel, position, (long) Double.BYTES * n);
+        position += (long) Double.BYTES * n;
+        ByteBuffer offsets = map(channel, position, (long) Integer.BYTES * (n + 1));
+        position += (long) Integer.BYTES * (n + 1);
+        ByteBuffer targets = map(channel, position, (long) Integer.BYTES * m);
+        position += (long) Integer.BYTES * m;
+        ByteBuffer weights = map(channel, position, (long) Float.BYTES * m);
+        position += (long) Float.BYTES * m;
+        ByteBuffer index = map(channel, position, (long) Integer.BYTES * tableSize);
+        position += (long) Integer.BYTES * tableSize;
+        ByteBuffer vertices = map(channel, position, (long) Integer.BYTES * routable);
+        position += (long) Integer.BYTES * routable;
+        RoadNetwork network = new RoadNetwork(context, lats.asDoubleBuffer(), lons.asDoubleBuffer(),
+                offsets.asIntBuffer(), targets.asIntBuffer(), weights.asFloatBuffer(), index.asIntBuffer());
+
+        ByteBuffer places = map(channel, position, channel.size() - position);
+        String osmPath = readString(places);
+        String placesPath = readString(places);
+        int names = count(places, Integer.BYTES + Integer.BYTES);
+        Map<String, List<Point>> locations = new LinkedHashMap<>(names * 2);
+        for (int i = 0; i < names; i += 1) {
+            String name = readString(places);
+            int count = count(places, 2 * Double.BYTES);
+            List<Point> points = new ArrayList<>(count);
+            for (int j = 0; j < count; j += 1) {
+                double lat = places.getDouble();
+                double lon = places.getDouble();
+                points.add(context.getShapeFactory().pointLatLon(lat, lon));
+            }
+            locations.put(name, points);
+        }
+        int ranked = count(places, Integer.BYTES + Integer.BYTES);
+        Map<CharSequence, Integer> importance = new HashMap<>(ranked * 2);
+        for (int i = 0; i < ranked; i += 1) {
+            String name = readString(places);
+            importance.put(name, places.getInt());
+        }
+        return new MapGraph(osmPath, placesPath, context, network, vertices.asIntBuffer(), locations, importance);
+    }
+
+    /**
+     * Maps the given region of the file, checking that the file contains all of it.
+     */
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size < 0 || position + size > channel.size()) {
+            throw new IOException("map snapshot is truncated");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Reads a count of items that each take at least the given number of bytes, checking that the rest of the buffer
+     * can hold them.
+     */
+    private static int count(ByteBuffer in, int bytes) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || (long) count * bytes > in.remaining()) {
+            throw new IOException("map snapshot is truncated");
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[count(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ImageSource} that fetches map images from the Mapbox Static Images API. The account and map style are read
+ * from the {@code USERNAME}, {@code STYLE_ID} and {@code TOKEN} environment variables.
+ *
+ * @see MapServer
+ */
+public class MapboxImageSource implements ImageSource {
+    @Override
+    public BufferedImage image(Point center, int zoom, int width, int height, List<Point> markers)
+            throws IOException {
+        BufferedImage image = ImageIO.read(url(center, zoom, width, height, markers));
+        if (image == null) {
+            throw new IOException("Mapbox returned an unreadable image");
+        }
+        return image;
+    }
+
+    /**
+     * Return the API URL for retrieving the map image.
+     *
+     * @param center    the center of the map image.
+     * @param width     the width of the window.
+     * @param height    the height of the window.
+     * @param locations the list of locations (or null).
+     * @return the URL for retrieving the map image.
+     * @throws MalformedURLException if the URL is invalid.
+     */
+    private static URL url(Point center, int zoom, int width, int height, List<Point> locations)
+            throws MalformedURLException {
+        String markers = "";
+        if (locations != null && !locations.isEmpty()) {
+            markers = locations.stream().map(location -> String.format(
+                    "pin-s(%f,%f)", location.getLon(), location.getLat()
+            )).collect(Collectors.joining(","));
+            markers += "/";
+        }
+        return new URL(String.format(
+                "https://api.mapbox.com/"
+                        // {username}/{style_id} and {overlay} (must include trailing slash)
+                        + "styles/v1/%s/%s/static/%s"
+                        // {lon},{lat},{zoom}/{width}x{height}{@2x}
+                        + "%f,%f,%d/%dx%d%s"
+                        // Access token and optional parameters
+                        + "?access_token=%s&logo=false&attribution=false",
+                System.getenv().getOrDefault("USERNAME", "mapbox"),
+                System.getenv().getOrDefault("STYLE_ID", "streets-v11"),
+                markers,
+                center.getLon(), center.getLat(), zoom,
+                (int) Math.ceil(width / 2.), (int) Math.ceil(height / 2.), "@2x",
+                System.getenv("TOKEN")
+        ));
+    }
+
+    @Override
+    public String toString() {
+        return "MapboxImageSource{}";
+    }
+}
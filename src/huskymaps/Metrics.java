@@ -0,0 +1,284 @@
+package huskymaps;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of server metrics written in the Prometheus text exposition format. Histograms count observations in
+ * fixed buckets with {@link LongAdder}s, so recording on the request path takes no locks. Counters and gauges read
+ * values that are already tracked elsewhere, such as cache statistics, only when the metrics are written. Metrics
+ * should be registered before the server starts handling requests.
+ *
+ * @see MapServer
+ */
+public class Metrics {
+    /**
+     * Bucket upper bounds in seconds for request stage latencies.
+     */
+    public static final double[] SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    /**
+     * Bucket upper bounds for counts that span several orders of magnitude.
+     */
+    public static final double[] COUNTS = {
+            0, 1, 3, 10, 30, 100, 300, 1000, 3000, 10000, 30000, 100000, 300000, 1000000
+    };
+
+    private final String prefix;
+    /**
+     * Metric families by full name, in registration order.
+     */
+    private final Map<String, Family> families;
+
+    /**
+     * A metric name with its help text, type and labeled samples.
+     */
+    private static class Family {
+        final String help;
+        final String type;
+        final List<Sample> samples = new ArrayList<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A labeled metric that writes its own sample lines.
+     */
+    private interface Sample {
+        void write(StringBuilder out, String name);
+    }
+
+    /**
+     * Histogram of observed values with cumulative buckets, a sum and a count.
+     */
+    public static class Histogram implements Sample {
+        private final String labels;
+        private final double[] bounds;
+        /**
+         * The number of observations in each bucket, with one more bucket for values above every bound.
+         */
+        private final LongAdder[] buckets;
+        /**
+         * The sum of observations in nanounits, so that it can be kept without locks.
+         */
+        private final LongAdder sumNanos;
+
+        private Histogram(String labels, double[] bounds) {
+            this.labels = labels;
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i += 1) {
+                buckets[i] = new LongAdder();
+            }
+            this.sumNanos = new LongAdder();
+        }
+
+        /**
+         * Records an observation.
+         *
+         * @param value the observed value.
+         */
+        public void observe(double value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i += 1;
+            }
+            buckets[i].increment();
+            sumNanos.add(Math.round(value * 1e9));
+        }
+
+        /**
+         * Records the time in seconds since the given {@link System#nanoTime()}.
+         *
+         * @param startNanos the start time in nanoseconds.
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        /**
+         * Returns the number of observations.
+         *
+         * @return the number of observations.
+         */
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name) {
+            // Buckets are read without a snapshot, so concurrent observations may make the totals differ slightly.
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i += 1) {
+                cumulative += buckets[i].sum();
+                line(out, name + "_bucket", with(labels, "le", format(bounds[i])), cumulative);
+            }
+            cumulative += buckets[bounds.length].sum();
+            line(out, name + "_bucket", with(labels, "le", "+Inf"), cumulative);
+            line(out, name + "_sum", labels, sumNanos.sum() / 1e9);
+            line(out, name + "_count", labels, cumulative);
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{" +
+                    "labels=" + labels +
+                    ", count=" + count() +
+                    '}';
+        }
+    }
+
+    /**
+     * Constructs an empty registry.
+     *
+     * @param prefix the prefix for every metric name, such as the application name.
+     */
+    public Metrics(String prefix) {
+        this.prefix = prefix;
+        this.families = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns a new histogram registered under the given name and labels.
+     *
+     * @param name   the metric name, without the prefix.
+     * @param help   the description of the metric.
+     * @param bounds the increasing bucket upper bounds.
+     * @param labels alternating label names and values.
+     * @return the new histogram.
+     */
+    public synchronized Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        Histogram histogram = new Histogram(labels(labels), bounds);
+        family(name, help, "histogram").samples.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Registers a counter whose value is read from the supplier when the metrics are written.
+     *
+     * @param name   the metric name, without the prefix.
+     * @param help   the description of the metric.
+     * @param value  the supplier of the current count.
+     * @param labels alternating label names and values.
+     */
+    public synchronized void counter(String name, String help, DoubleSupplier value, String... labels) {
+        String labelSet = labels(labels);
+        family(name, help, "counter").samples.add((out, full) -> line(out, full, labelSet, value.getAsDouble()));
+    }
+
+    /**
+     * Registers a gauge whose value is read from the supplier when the metrics are written.
+     *
+     * @param name   the metric name, without the prefix.
+     * @param help   the description of the metric.
+     * @param value  the supplier of the current value.
+     * @param labels alternating label names and values.
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        String labelSet = labels(labels);
+        family(name, help, "gauge").samples.add((out, full) -> line(out, full, labelSet, value.getAsDouble()));
+    }
+
+    /**
+     * Registers counters for the hits, misses and evictions of the cache and a gauge for its hit rate.
+     *
+     * @param cache the cache.
+     * @param name  the name of the cache, used as the {@code cache} label.
+     */
+    public void cache(BoundedCache<?, ?> cache, String name) {
+        counter("cache_hits_total", "Cache lookups that found a value.",
+                cache::hits, "cache", name);
+        counter("cache_misses_total", "Cache lookups that found no value.",
+                cache::misses, "cache", name);
+        counter("cache_evictions_total", "Values evicted to stay within the cache bounds.",
+                cache::evictions, "cache", name);
+        gauge("cache_hit_ratio", "Fraction of cache lookups that found a value.", cache::hitRate, "cache", name);
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format.
+     *
+     * @return all metrics in the Prometheus text exposition format.
+     */
+    public synchronized String text() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Sample sample : family.samples) {
+                sample.write(out, name);
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(prefix + "_" + name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Returns the label set for the alternating label names and values, without braces.
+     */
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        String result = "";
+        for (int i = 0; i < labels.length; i += 2) {
+            result = with(result, labels[i], labels[i + 1]);
+        }
+        return result;
+    }
+
+    private static String with(String labels, String name, String value) {
+        String label = name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        // Plain notation keeps bucket labels such as le="0.0005" readable.
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Metrics{" +
+                "prefix=" + prefix +
+                ", families=" + families.size() +
+                '}';
+    }
+}
@@ -0,0 +1,223 @@
+package huskymaps;
+
+import minpq.IntMinPQ;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reusable Dijkstra search over a {@link RoadNetwork} from one source to many targets or to every vertex within a
+ * distance budget. Search state is allocated once and reset in time proportional to the number of vertices touched by
+ * the previous search, and each search stops as soon as every target is settled or the budget is exhausted rather
+ * than exploring the whole network. Distances are in the units of the network edge weights. Instances are not
+ * thread-safe.
+ *
+ * @see DistanceMatrix
+ * @see Isochrone
+ */
+public class OneToManySearch {
+    private final RoadNetwork network;
+    /**
+     * The shortest known distance to each vertex, or infinity for vertices not yet reached.
+     */
+    private final double[] distTo;
+    /**
+     * The previous vertex on the shortest known path to each reached vertex, or -1 for the source.
+     */
+    private final int[] parent;
+    /**
+     * The number of settled children of each vertex in the shortest path tree, for building isochrones.
+     */
+    private final int[] children;
+    /**
+     * The index of the isochrone polyline ending at each vertex, or -1 if there is none.
+     */
+    private final int[] chain;
+    /**
+     * The search number in which each vertex is an unsettled target, so that marks never need to be cleared.
+     */
+    private final int[] pending;
+    private final IntMinPQ pq;
+    private int[] touched;
+    private int touchedCount;
+    private int searches;
+    private int settledCount;
+
+    /**
+     * Constructs a new search over the given network.
+     *
+     * @param network the street network.
+     */
+    public OneToManySearch(RoadNetwork network) {
+        this.network = network;
+        this.distTo = new double[network.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        this.parent = new int[network.size()];
+        this.children = new int[network.size()];
+        this.chain = new int[network.size()];
+        Arrays.fill(chain, -1);
+        this.pending = new int[network.size()];
+        this.pq = new IntMinPQ(network.size());
+        this.touched = new int[16];
+    }
+
+    /**
+     * Returns the shortest distance from the source to each target, or infinity for unreachable targets.
+     *
+     * @param source  the source vertex id.
+     * @param targets the target vertex ids, possibly with duplicates.
+     * @return the shortest distance to each target, indexed like the targets.
+     * @throws CancellationException if the current thread is interrupted during the search.
+     */
+    public double[] distances(int source, int[] targets) {
+        reset();
+        int remaining = 0;
+        for (int t : targets) {
+            if (pending[t] != searches) {
+                pending[t] = searches;
+                remaining += 1;
+            }
+        }
+        visit(source, -1, 0);
+        pq.add(source, 0);
+        while (remaining > 0 && !pq.isEmpty()) {
+            int from = pq.removeMin();
+            settledCount += 1;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("search interrupted");
+            }
+            if (pending[from] == searches) {
+                pending[from] = 0;
+                remaining -= 1;
+            }
+            for (int e = network.begin(from); e < network.end(from); e += 1) {
+                int to = network.target(e);
+                double newDist = distTo[from] + network.weight(e);
+                if (newDist < distTo[to]) {
+                    visit(to, from, newDist);
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        double[] result = new double[targets.length];
+        for (int i = 0; i < targets.length; i += 1) {
+            result[i] = distTo[targets[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Returns every vertex whose shortest distance from the source is at most the budget, along with the shortest path
+     * tree joining them. Vertices beyond the budget are never added to the queue, so the search only touches the
+     * budgeted area and the edges leaving it.
+     *
+     * @param source the source vertex id.
+     * @param budget the maximum distance from the source.
+     * @return the isochrone of the source.
+     * @throws CancellationException if the current thread is interrupted during the search.
+     */
+    public Isochrone isochrone(int source, double budget) {
+        reset();
+        visit(source, -1, 0);
+        pq.add(source, 0);
+        int[] reached = new int[16];
+        int count = 0;
+        while (!pq.isEmpty()) {
+            int from = pq.removeMin();
+            settledCount += 1;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("search interrupted");
+            }
+            if (count == reached.length) {
+                reached = Arrays.copyOf(reached, count * 2);
+            }
+            reached[count] = from;
+            count += 1;
+            for (int e = network.begin(from); e < network.end(from); e += 1) {
+                int to = network.target(e);
+                double newDist = distTo[from] + network.weight(e);
+                if (newDist <= budget && newDist < distTo[to]) {
+                    visit(to, from, newDist);
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+
+        // Join tree edges into polylines that continue through vertices with exactly one child. Vertices are settled
+        // after their parents, so each parent's polyline exists before its children are visited.
+        for (int i = 1; i < count; i += 1) {
+            children[parent[reached[i]]] += 1;
+        }
+        List<Point> vertices = new ArrayList<>(count);
+        vertices.add(network.point(source));
+        List<List<Point>> polylines = new ArrayList<>();
+        for (int i = 1; i < count; i += 1) {
+            int v = reached[i];
+            int p = parent[v];
+            Point point = network.point(v);
+            vertices.add(point);
+            if (p != source && children[p] == 1 && chain[p] >= 0) {
+                polylines.get(chain[p]).add(point);
+                chain[v] = chain[p];
+            } else {
+                List<Point> polyline = new ArrayList<>();
+                polyline.add(network.point(p));
+                polyline.add(point);
+                chain[v] = polylines.size();
+                polylines.add(polyline);
+            }
+        }
+        for (int i = 0; i < count; i += 1) {
+            children[reached[i]] = 0;
+            chain[reached[i]] = -1;
+        }
+        return new Isochrone(network.point(source), budget, vertices, polylines);
+    }
+
+    /**
+     * Returns the number of vertices settled by the most recent search.
+     *
+     * @return the number of vertices settled by the most recent search.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    private void visit(int v, int from, double newDist) {
+        if (distTo[v] == Double.POSITIVE_INFINITY) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount] = v;
+            touchedCount += 1;
+        }
+        distTo[v] = newDist;
+        parent[v] = from;
+    }
+
+    private void reset() {
+        for (int i = 0; i < touchedCount; i += 1) {
+            distTo[touched[i]] = Double.POSITIVE_INFINITY;
+        }
+        touchedCount = 0;
+        pq.clear();
+        settledCount = 0;
+        if (searches == Integer.MAX_VALUE) {
+            Arrays.fill(pending, 0);
+            searches = 0;
+        }
+        // Search numbers start at 1 so that 0 never marks a pending target.
+        searches += 1;
+    }
+
+    @Override
+    public String toString() {
+        return "OneToManySearch{" +
+                "network=" + network +
+                ", settledCount=" + settledCount +
+                '}';
+    }
+}
@@ -0,0 +1,426 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming reader for gzipped OSM (XML) files that runs decompression, XML parsing and graph assembly as three
+ * stages on separate threads, connected by bounded queues so that memory use does not depend on the file size.
+ * <p>
+ * In two-pass mode, the first pass only collects the ids of nodes referenced by routable ways, and the second pass
+ * keeps only those nodes (and named nodes), rather than every node in the file. This trades a second decompression and
+ * parse for a much smaller node table on extracts where most nodes belong to buildings, paths and other features.
+ *
+ * @see MapGraph
+ */
+public class OsmPipeline {
+    /**
+     * Number of decompressed bytes per chunk passed from the decompression stage to the parsing stage.
+     */
+    private static final int CHUNK_BYTES = 1 << 16;
+    /**
+     * Number of elements per batch passed from the parsing stage to the assembly stage.
+     */
+    private static final int BATCH_SIZE = 1024;
+    /**
+     * Maximum number of chunks or batches waiting in each queue.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+    /**
+     * Marks the end of the decompressed chunks.
+     */
+    private static final byte[] END_OF_CHUNKS = new byte[0];
+    /**
+     * Marks the end of the parsed batches.
+     */
+    private static final List<Element> END_OF_BATCHES = List.of();
+
+    private final SpatialContext context;
+    private final Set<String> allowedHighwayTypes;
+    private final boolean twoPass;
+
+    /**
+     * Opens a fresh stream of the gzipped OSM file for each pass.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Returns a new stream of the gzipped OSM file.
+         *
+         * @return a new stream of the gzipped OSM file.
+         * @throws IOException if the file cannot be opened.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Constructs a new pipeline.
+     *
+     * @param context             the spatial context for node locations.
+     * @param allowedHighwayTypes the {@code highway} tag values of routable ways.
+     * @param twoPass             true to keep only the nodes referenced by routable ways.
+     */
+    public OsmPipeline(SpatialContext context, Set<String> allowedHighwayTypes, boolean twoPass) {
+        this.context = context;
+        this.allowedHighwayTypes = allowedHighwayTypes;
+        this.twoPass = twoPass;
+    }
+
+    /**
+     * Reads the OSM file, calling the road consumer once for each consecutive pair of nodes along each routable way.
+     *
+     * @param source the source of the gzipped OSM file.
+     * @param road   the consumer of road segments, called on the calling thread.
+     * @return the locations of each named node.
+     * @throws ParserConfigurationException if a parser cannot be created.
+     * @throws SAXException                 for SAX errors.
+     * @throws IOException                  if the file cannot be read or is not gzipped.
+     */
+    public Map<String, List<Point>> read(Source source, BiConsumer<Point, Point> road)
+            throws ParserConfigurationException, SAXException, IOException {
+        LongIntMap referenced = null;
+        if (twoPass) {
+            // Number of routable ways referencing each node.
+            LongIntMap counts = new LongIntMap();
+            run(source, false, null, element -> {
+                for (long ref : element.refs) {
+                    counts.put(ref, counts.getOrDefault(ref, 0) + 1);
+                }
+            });
+            referenced = counts;
+        }
+        LongIntMap keep = referenced;
+        LongObjectMap<Point> byId = keep != null ? new LongObjectMap<>(keep.size()) : new LongObjectMap<>();
+        Map<String, List<Point>> byName = new HashMap<>();
+        run(source, true, keep, element -> {
+            if (element.refs == null) {
+                if (keep == null || keep.containsKey(element.id)) {
+                    byId.put(element.id, element.location);
+                }
+                if (element.name != null) {
+                    byName.putIfAbsent(element.name, new ArrayList<>());
+                    byName.get(element.name).add(element.location);
+                }
+                return;
+            }
+            Point from = null;
+            for (long ref : element.refs) {
+                Point to = byId.get(ref);
+                if (to == null) {
+                    // Skip nodes missing from the extract.
+                    continue;
+                }
+                if (from != null) {
+                    road.accept(from, to);
+                }
+                from = to;
+            }
+        });
+        return byName;
+    }
+
+    /**
+     * Runs one pass over the file, passing each parsed element to the assembler on the calling thread.
+     *
+     * @param nodes     true to parse nodes, false to parse only routable ways.
+     * @param keep      the ids of unnamed nodes to parse, or null to parse all nodes.
+     * @param assembler the consumer of parsed elements.
+     */
+    private void run(Source source, boolean nodes, LongIntMap keep, ElementConsumer assembler)
+            throws ParserConfigurationException, SAXException, IOException {
+        BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<List<Element>> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ExecutorService stages = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "osm-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            Future<?> decompression = stages.submit(() -> {
+                try (InputStream in = new GZIPInputStream(source.open(), CHUNK_BYTES)) {
+                    byte[] chunk = in.readNBytes(CHUNK_BYTES);
+                    while (chunk.length > 0) {
+                        chunks.put(chunk);
+                        chunk = in.readNBytes(CHUNK_BYTES);
+                    }
+                } catch (IOException e) {
+                    // Rethrown by the parsing stage when it reaches the end of the chunks.
+                    failure.set(e);
+                }
+                chunks.put(END_OF_CHUNKS);
+                return null;
+            });
+            Future<Void> parsing = stages.submit(() -> {
+                try {
+                    Handler handler = new Handler(nodes, keep, batches);
+                    SAXParserFactory.newInstance().newSAXParser()
+                            .parse(new ChunkInputStream(chunks, failure), handler);
+                    handler.flush();
+                } finally {
+                    // Unblocks the decompression stage if parsing stopped early.
+                    decompression.cancel(true);
+                    batches.put(END_OF_BATCHES);
+                }
+                return null;
+            });
+            List<Element> batch = batches.take();
+            while (batch != END_OF_BATCHES) {
+                for (Element element : batch) {
+                    assembler.accept(element);
+                }
+                batch = batches.take();
+            }
+            join(parsing);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading OSM file");
+        } finally {
+            // Unblocks the stages if assembly failed.
+            stages.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the stage to finish, rethrowing its exception.
+     */
+    private static void join(Future<?> stage)
+            throws ParserConfigurationException, SAXException, IOException, InterruptedException {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A node, or a routable way given by its node ids.
+     */
+    private static class Element {
+        private final long id;
+        private final Point location;
+        private final String name;
+        private final long[] refs;
+
+        Element(long id, Point location, String name, long[] refs) {
+            this.id = id;
+            this.location = location;
+            this.name = name;
+            this.refs = refs;
+        }
+    }
+
+    /**
+     * Consumer of parsed elements.
+     */
+    @FunctionalInterface
+    private interface ElementConsumer {
+        void accept(Element element);
+    }
+
+    /**
+     * Input stream over the chunks produced by the decompression stage.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final BlockingQueue<byte[]> chunks;
+        private final AtomicReference<IOException> failure;
+        private byte[] chunk;
+        private int position;
+
+        ChunkInputStream(BlockingQueue<byte[]> chunks, AtomicReference<IOException> failure) {
+            this.chunks = chunks;
+            this.failure = failure;
+            this.chunk = new byte[0];
+        }
+
+        /**
+         * Returns false if there are no more chunks, otherwise ensures that the current chunk has unread bytes.
+         *
+         * @throws IOException if decompression failed.
+         */
+        private boolean fill() throws IOException {
+            while (chunk != END_OF_CHUNKS && position == chunk.length) {
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+            }
+            if (chunk == END_OF_CHUNKS && failure.get() != null) {
+                throw failure.get();
+            }
+            return chunk != END_OF_CHUNKS;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            int b = chunk[position] & 0xff;
+            position += 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Parses OSM XML elements into batches of nodes and routable ways.
+     */
+    private class Handler extends DefaultHandler {
+        private final boolean nodes;
+        private final LongIntMap keep;
+        private final BlockingQueue<List<Element>> batches;
+        private List<Element> batch;
+        private String state;
+        private long id;
+        private String name;
+        private boolean validWay;
+        private Point location;
+        private long[] refs;
+        private int size;
+
+        Handler(boolean nodes, LongIntMap keep, BlockingQueue<List<Element>> batches) {
+            this.nodes = nodes;
+            this.keep = keep;
+            this.batches = batches;
+            this.batch = new ArrayList<>(BATCH_SIZE);
+            this.refs = new long[16];
+            reset();
+        }
+
+        /**
+         * Reset the handler state before processing a new way or node.
+         */
+        private void reset() {
+            state = "";
+            id = Long.MIN_VALUE;
+            name = "";
+            validWay = false;
+            location = null;
+            size = 0;
+        }
+
+        /**
+         * Adds the element to the current batch, passing the batch to the assembly stage once it is full.
+         */
+        private void emit(Element element) throws SAXException {
+            batch.add(element);
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Passes the current batch to the assembly stage.
+         *
+         * @throws SAXException if interrupted while waiting for space in the queue.
+         */
+        void flush() throws SAXException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                batches.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException(e);
+            }
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("node")) {
+                state = "node";
+                if (nodes) {
+                    id = Long.parseLong(attributes.getValue("id"));
+                    location = context.getShapeFactory().pointLatLon(
+                            Double.parseDouble(attributes.getValue("lat")),
+                            Double.parseDouble(attributes.getValue("lon"))
+                    );
+                }
+            } else if (qName.equals("way")) {
+                state = "way";
+            } else if (state.equals("way") && qName.equals("nd")) {
+                if (size == refs.length) {
+                    refs = Arrays.copyOf(refs, size * 2);
+                }
+                refs[size] = Long.parseLong(attributes.getValue("ref"));
+                size += 1;
+            } else if (state.equals("way") && qName.equals("tag")) {
+                String k = attributes.getValue("k");
+                String v = attributes.getValue("v");
+                if (k.equals("highway")) {
+                    validWay = allowedHighwayTypes.contains(v);
+                }
+            } else if (nodes && state.equals("node") && qName.equals("tag")
+                    && attributes.getValue("k").equals("name")) {
+                name = attributes.getValue("v").strip()
+                        .replace('“', '"')
+                        .replace('”', '"')
+                        .replace('‘', '\'')
+                        .replace('’', '\'');
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (qName.equals("way")) {
+                if (validWay && size > 0) {
+                    emit(new Element(0, null, null, Arrays.copyOf(refs, size)));
+                }
+                reset();
+            } else if (qName.equals("node")) {
+                if (nodes) {
+                    boolean named = !name.isBlank();
+                    if (named || keep == null || keep.containsKey(id)) {
+                        emit(new Element(id, location, named ? name : null, null));
+                    }
+                }
+                reset();
+            }
+        }
+    }
+}
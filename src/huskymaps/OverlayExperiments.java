@@ -0,0 +1,123 @@
+package huskymaps;
+
+import graphs.ReusableAStarSolver;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Run experiments comparing the per-request allocation and runtime of drawing routes over a cached PNG base image:
+ * the original approach of decoding, copying, drawing with new strokes and colors and encoding into a new buffer,
+ * against {@link OverlayRenderer}. Allocation is measured with the HotSpot per-thread allocation counter.
+ */
+class OverlayExperiments {
+    /**
+     * The OpenStreetMap XML file path.
+     */
+    private static final String OSM_PATH = "data/huskymaps/seattle-tiny.osm.gz";
+    /**
+     * The place-importance TSV data file path.
+     */
+    private static final String PLACES_PATH = "data/huskymaps/places.tsv.gz";
+    /**
+     * Number of routed requests measured for each approach.
+     */
+    private static final int NUM_TRIALS = 200;
+    /**
+     * Number of requests before measuring, to warm up the JIT compiler and the raster pool.
+     */
+    private static final int NUM_WARMUP = 50;
+    private static final int ZOOM = 14;
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    /**
+     * A way of drawing a route over the base image and encoding the result.
+     */
+    private interface Approach {
+        /**
+         * Returns the number of PNG bytes produced.
+         */
+        int render(EncodedImage base, Point center, List<Point> route) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ImageIO.setUseCache(false);
+        SpatialContext context = SpatialContext.GEO;
+        MapGraph map = new MapGraph(OSM_PATH, PLACES_PATH, context, MapGraph.Storage.CSR);
+        RoadNetwork network = map.network();
+        Point center = context.getShapeFactory().pointLatLon(47.655, -122.3);
+        EncodedImage base = EncodedImage.encode(
+                new MapRenderer(map, true).image(center, ZOOM, WIDTH, HEIGHT, List.of()));
+        ReusableAStarSolver<Point> solver = new ReusableAStarSolver<>(map);
+        Random random = new Random(373);
+        List<List<Point>> routes = new ArrayList<>();
+        for (int i = 0; i < NUM_WARMUP + NUM_TRIALS; i += 1) {
+            routes.add(solver.solution(
+                    network.point(random.nextInt(network.size())), network.point(random.nextInt(network.size()))
+            ));
+        }
+
+        Approach original = (image, c, route) -> {
+            BufferedImage decoded = image.decode();
+            BufferedImage copy = new BufferedImage(
+                    decoded.getColorModel(), decoded.copyData(null), decoded.isAlphaPremultiplied(), null
+            );
+            double lonDPP = MapServer.SEATTLE_ROOT_LONDPP / Math.pow(2, ZOOM);
+            double latDPP = MapServer.SEATTLE_ROOT_LATDPP / Math.pow(2, ZOOM);
+            int[] xPoints = new int[route.size()];
+            int[] yPoints = new int[route.size()];
+            int i = 0;
+            for (Point location : route) {
+                xPoints[i] = (int) ((location.getLon() - c.getLon()) * (1 / lonDPP)) + (WIDTH / 2);
+                yPoints[i] = (int) ((c.getLat() - location.getLat()) * (1 / latDPP)) + (HEIGHT / 2);
+                i += 1;
+            }
+            Graphics2D g2d = copy.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(new Color(255, 255, 255));
+            g2d.setStroke(new BasicStroke(10.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.drawPolyline(xPoints, yPoints, xPoints.length);
+            g2d.setColor(new Color(108, 181, 230));
+            g2d.setStroke(new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.drawPolyline(xPoints, yPoints, xPoints.length);
+            g2d.dispose();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(copy, "png", os);
+            return os.toByteArray().length;
+        };
+        OverlayRenderer overlays = new OverlayRenderer();
+        Approach pooled = (image, c, route) -> overlays.render(image, c, ZOOM, List.of(), List.of(), route).size();
+
+        measure("Original", original, base, center, routes);
+        measure("OverlayRenderer", pooled, base, center, routes);
+    }
+
+    private static void measure(String name, Approach approach, EncodedImage base, Point center,
+                                List<List<Point>> routes) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < NUM_WARMUP; i += 1) {
+            approach.render(base, center, routes.get(i));
+        }
+        long bytes = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = NUM_WARMUP; i < routes.size(); i += 1) {
+            bytes += approach.render(base, center, routes.get(i));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        System.out.printf("%-16s %8.3f ms/request  %10.1f KB allocated/request  %8.1f KB PNG/request%n",
+                name, seconds / NUM_TRIALS * 1e3, allocated / 1024.0 / NUM_TRIALS, bytes / 1024.0 / NUM_TRIALS);
+    }
+}
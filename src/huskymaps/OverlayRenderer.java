@@ -0,0 +1,246 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Draws location markers and routes over cached base images with little per-request allocation. Base images are
+ * decoded straight into pooled rasters of the same size, strokes and colors are shared constants, and each thread
+ * reuses its own PNG reader, {@link PngEncoder}, coordinate arrays and output buffer.
+ *
+ * @see MapServer
+ */
+public class OverlayRenderer {
+    /**
+     * Maximum number of idle rasters kept for each image size.
+     */
+    private static final int MAX_POOLED_PER_SIZE = 8;
+    private static final Color ROUTE_OUTLINE = new Color(255, 255, 255);
+    private static final Color ROUTE = new Color(108, 181, 230);
+    private static final BasicStroke ROUTE_OUTLINE_STROKE =
+            new BasicStroke(10.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    private static final BasicStroke ROUTE_STROKE =
+            new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    private static final Color ISOCHRONE = new Color(230, 140, 40);
+    private static final BasicStroke ISOCHRONE_STROKE =
+            new BasicStroke(4.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+    /**
+     * Idle rasters by width (high 32 bits) and height (low 32 bits).
+     */
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<BufferedImage>> pool;
+    private final ThreadLocal<State> states;
+
+    /**
+     * Output buffer whose backing array can be written to a response without copying. The contents are valid until
+     * the next render on the same thread.
+     */
+    public static class PngBuffer extends ByteArrayOutputStream {
+        PngBuffer() {
+            super(1 << 16);
+        }
+
+        /**
+         * Returns the backing array, of which the first {@link #size()} bytes are valid.
+         *
+         * @return the backing array.
+         */
+        public byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Per-thread reusable state.
+     */
+    private static class State {
+        final ImageReader reader = ImageIO.getImageReadersByFormatName("png").next();
+        final PngEncoder encoder = new PngEncoder();
+        final ImageReadParam param = reader.getDefaultReadParam();
+        final PngBuffer out = new PngBuffer();
+        int[] xPoints = new int[256];
+        int[] yPoints = new int[256];
+    }
+
+    /**
+     * Constructs a new renderer with an empty raster pool.
+     */
+    public OverlayRenderer() {
+        this.pool = new ConcurrentHashMap<>();
+        this.states = ThreadLocal.withInitial(State::new);
+    }
+
+    /**
+     * Draws the polylines, the markers and then the route over the base image, writing the PNG encoding of the result
+     * into this thread's output buffer.
+     *
+     * @param base      the encoded base image.
+     * @param center    the center of the image.
+     * @param zoom      the zoom level.
+     * @param polylines the polylines to draw, such as an {@link Isochrone}, possibly empty.
+     * @param markers   the locations of pins to draw, possibly empty.
+     * @param route     the route to draw, possibly empty.
+     * @return this thread's output buffer, valid until the next render on the same thread.
+     * @throws IOException if the base image cannot be decoded.
+     */
+    public PngBuffer render(EncodedImage base, Point center, int zoom, List<List<Point>> polylines,
+                            List<Point> markers, List<Point> route) throws IOException {
+        State state = states.get();
+        BufferedImage image = decode(state, base);
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            double lonDPP = MapServer.SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+            double latDPP = MapServer.SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(ISOCHRONE);
+            g2d.setStroke(ISOCHRONE_STROKE);
+            for (List<Point> polyline : polylines) {
+                int n = project(state, polyline, center, width, height, lonDPP, latDPP);
+                g2d.drawPolyline(state.xPoints, state.yPoints, n);
+            }
+            for (Point location : markers) {
+                MapRenderer.drawPin(g2d,
+                        (int) ((location.getLon() - center.getLon()) * (1 / lonDPP)) + (width / 2),
+                        (int) ((center.getLat() - location.getLat()) * (1 / latDPP)) + (height / 2));
+            }
+            if (!route.isEmpty()) {
+                int i = project(state, route, center, width, height, lonDPP, latDPP);
+                g2d.setColor(ROUTE_OUTLINE);
+                g2d.setStroke(ROUTE_OUTLINE_STROKE);
+                g2d.drawPolyline(state.xPoints, state.yPoints, i);
+                g2d.setColor(ROUTE);
+                g2d.setStroke(ROUTE_STROKE);
+                g2d.drawPolyline(state.xPoints, state.yPoints, i);
+            }
+            g2d.dispose();
+            state.out.reset();
+            state.encoder.encode(image, state.out);
+            return state.out;
+        } finally {
+            release(image);
+        }
+    }
+
+    /**
+     * Projects the locations into this thread's coordinate arrays, growing them if needed, and returns the number of
+     * projected locations.
+     */
+    private static int project(State state, List<Point> locations, Point center, int width, int height,
+                               double lonDPP, double latDPP) {
+        if (state.xPoints.length < locations.size()) {
+            state.xPoints = new int[Math.max(locations.size(), 2 * state.xPoints.length)];
+            state.yPoints = new int[state.xPoints.length];
+        }
+        int i = 0;
+        for (Point location : locations) {
+            state.xPoints[i] = (int) ((location.getLon() - center.getLon()) * (1 / lonDPP)) + (width / 2);
+            state.yPoints[i] = (int) ((center.getLat() - location.getLat()) * (1 / latDPP)) + (height / 2);
+            i += 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the base image decoded into a pooled {@code TYPE_INT_RGB} raster of the same size.
+     */
+    private BufferedImage decode(State state, EncodedImage base) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(base.bytes()))) {
+            state.reader.setInput(input, true, true);
+            int width = state.reader.getWidth(0);
+            int height = state.reader.getHeight(0);
+            BufferedImage image = acquire(width, height);
+            if (decodesTo(state.reader, image)) {
+                state.param.setDestination(image);
+                state.reader.read(0, state.param);
+            } else {
+                // Palette and alpha images are decoded as usual and then converted.
+                state.param.setDestination(null);
+                Graphics2D g2d = image.createGraphics();
+                // Replace rather than blend with the previous contents of the pooled raster.
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.drawImage(state.reader.read(0, state.param), 0, 0, null);
+                g2d.dispose();
+            }
+            return image;
+        } finally {
+            state.reader.setInput(null);
+        }
+    }
+
+    /**
+     * Returns true if the reader can decode its current image directly into the destination.
+     */
+    private static boolean decodesTo(ImageReader reader, BufferedImage destination) throws IOException {
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(destination);
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while (types.hasNext()) {
+            if (types.next().equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an idle pooled raster of the given size, or a new one if there are none.
+     */
+    private BufferedImage acquire(int width, int height) {
+        ConcurrentLinkedQueue<BufferedImage> idle = pool.get(key(width, height));
+        BufferedImage image = idle == null ? null : idle.poll();
+        if (image == null) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the raster to the pool unless the pool for its size is full.
+     */
+    private void release(BufferedImage image) {
+        ConcurrentLinkedQueue<BufferedImage> idle = pool.computeIfAbsent(
+                key(image.getWidth(), image.getHeight()), key -> new ConcurrentLinkedQueue<>()
+        );
+        // The size check is approximate under contention, which only affects how many rasters are kept.
+        if (idle.size() < MAX_POOLED_PER_SIZE) {
+            idle.add(image);
+        }
+    }
+
+    private static long key(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    /**
+     * Returns the number of idle pooled rasters.
+     *
+     * @return the number of idle pooled rasters.
+     */
+    public int pooled() {
+        return pool.values().stream().mapToInt(ConcurrentLinkedQueue::size).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "OverlayRenderer{" +
+                "sizes=" + pool.size() +
+                ", pooled=" + pooled() +
+                '}';
+    }
+}
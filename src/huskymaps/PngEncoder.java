@@ -0,0 +1,136 @@
+package huskymaps;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable PNG encoder for {@code TYPE_INT_RGB} images that reads pixels straight from the image's data buffer and
+ * reuses its compressor and row buffer across images, so encoding allocates almost nothing. Like the {@code ImageIO}
+ * writer, rows are not filtered, which keeps encoding fast and compresses the large flat areas of map images well.
+ * Instances are not thread-safe.
+ *
+ * @see OverlayRenderer
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    /**
+     * Maximum number of compressed bytes per IDAT chunk.
+     */
+    private static final int CHUNK_BYTES = 1 << 15;
+    /**
+     * The deflate compression level, matching the {@code ImageIO} PNG writer default.
+     */
+    private static final int COMPRESSION_LEVEL = 4;
+
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] chunk;
+    private final byte[] header;
+    /**
+     * The current row, starting with its filter type byte.
+     */
+    private byte[] row;
+
+    /**
+     * Constructs a new encoder.
+     */
+    public PngEncoder() {
+        this.deflater = new Deflater(COMPRESSION_LEVEL);
+        this.crc = new CRC32();
+        this.chunk = new byte[CHUNK_BYTES];
+        this.header = new byte[13];
+        this.row = new byte[1];
+    }
+
+    /**
+     * Writes the PNG encoding of the image to the output.
+     *
+     * @param image the image, which must be {@code TYPE_INT_RGB}.
+     * @param out   the output.
+     * @throws IllegalArgumentException if the image is not {@code TYPE_INT_RGB}.
+     */
+    public void encode(BufferedImage image, ByteArrayOutputStream out) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Image must be TYPE_INT_RGB");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+        if (row.length < 3 * width + 1) {
+            row = new byte[3 * width + 1];
+        }
+
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;  // Bit depth
+        header[9] = 2;  // Color type: RGB
+        header[10] = 0; // Compression method: deflate
+        header[11] = 0; // Filter method: adaptive
+        header[12] = 0; // Interlace method: none
+        writeChunk(out, IHDR, header, header.length);
+
+        deflater.reset();
+        row[0] = 0; // Filter type: none
+        for (int y = 0; y < height; y += 1) {
+            int start = y * stride;
+            for (int x = 0; x < width; x += 1) {
+                int rgb = pixels[start + x];
+                row[3 * x + 1] = (byte) (rgb >> 16);
+                row[3 * x + 2] = (byte) (rgb >> 8);
+                row[3 * x + 3] = (byte) rgb;
+            }
+            deflater.setInput(row, 0, 3 * width + 1);
+            while (!deflater.needsInput()) {
+                deflate(out);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(out);
+        }
+        writeChunk(out, IEND, chunk, 0);
+    }
+
+    /**
+     * Compresses pending input into the chunk buffer, writing an IDAT chunk whenever it has output.
+     */
+    private void deflate(ByteArrayOutputStream out) {
+        int n = deflater.deflate(chunk, 0, chunk.length, Deflater.NO_FLUSH);
+        if (n > 0) {
+            writeChunk(out, IDAT, chunk, n);
+        }
+    }
+
+    private void writeChunk(ByteArrayOutputStream out, byte[] type, byte[] data, int length) {
+        writeInt(out, length);
+        out.write(type, 0, type.length);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type, 0, type.length);
+        crc.update(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,590 @@
+package huskymaps;
+
+import graphs.AStarGraph;
+import graphs.Edge;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact {@link AStarGraph} of a street network stored in compressed sparse row (CSR) form. Vertices are identified
+ * by dense {@code int} ids {@code 0..size()-1}; the outgoing edges of vertex {@code v} are the edge ids
+ * {@code begin(v)..end(v)-1}, each with a {@code target} vertex id and a {@code float} weight. The arrays are held in
+ * NIO buffers, which may wrap heap arrays or be mapped directly from a {@link MapSnapshot} file.
+ *
+ * @see MapGraph
+ * @see Builder
+ */
+public class RoadNetwork implements AStarGraph<Point> {
+    private final SpatialContext context;
+    /**
+     * The latitude and longitude of each vertex, indexed by vertex id.
+     */
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    /**
+     * The CSR row offsets: the outgoing edges of vertex {@code v} are stored at {@code offsets[v]..offsets[v + 1]-1}.
+     */
+    private final IntBuffer offsets;
+    /**
+     * The destination vertex id of each edge.
+     */
+    private final IntBuffer targets;
+    /**
+     * The weight of each edge.
+     */
+    private final FloatBuffer weights;
+    /**
+     * Open-addressing table of vertex ids (or -1 for an empty slot) for looking up a vertex by its location.
+     */
+    private final IntBuffer index;
+    /**
+     * The location of each vertex, created on first access and then shared by every caller.
+     */
+    private final AtomicReferenceArray<Point> points;
+
+    /**
+     * Constructs a network from its buffers, as written by {@link MapSnapshot}.
+     */
+    RoadNetwork(SpatialContext context, DoubleBuffer lats, DoubleBuffer lons, IntBuffer offsets, IntBuffer targets,
+                FloatBuffer weights, IntBuffer index) {
+        this.context = context;
+        this.lats = lats;
+        this.lons = lons;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.index = index;
+        this.points = new AtomicReferenceArray<>(lats.limit());
+    }
+
+    private RoadNetwork(SpatialContext context, double[] lats, double[] lons, int[] offsets, int[] targets,
+                        float[] weights) {
+        this(context, DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons), IntBuffer.wrap(offsets),
+                IntBuffer.wrap(targets), FloatBuffer.wrap(weights), IntBuffer.wrap(indexOf(lats, lons)));
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return the number of vertices.
+     */
+    public int size() {
+        return lats.limit();
+    }
+
+    /**
+     * Returns the number of directed edges.
+     *
+     * @return the number of directed edges.
+     */
+    public int edgeCount() {
+        return targets.limit();
+    }
+
+    /**
+     * Returns the id of the vertex at the given location, or -1 if there is no such vertex.
+     *
+     * @param point the location of the vertex.
+     * @return the id of the vertex at the given location, or -1 if there is no such vertex.
+     */
+    public int id(Point point) {
+        double lat = point.getLat();
+        double lon = point.getLon();
+        int mask = index.limit() - 1;
+        int slot = hash(lat, lon) & mask;
+        int v;
+        while ((v = index.get(slot)) >= 0 && (lats.get(v) != lat || lons.get(v) != lon)) {
+            slot = (slot + 1) & mask;
+        }
+        return v;
+    }
+
+    /**
+     * Returns the location of the given vertex. Each vertex has one point, which is created on first access and
+     * returned to every later caller, so the returned point must not be modified.
+     *
+     * @param v the vertex id.
+     * @return the location of the given vertex.
+     */
+    public Point point(int v) {
+        Point point = points.get(v);
+        if (point == null) {
+            // Racing threads create equal points and keep whichever was stored first.
+            Point created = context.getShapeFactory().pointLatLon(lats.get(v), lons.get(v));
+            point = points.compareAndSet(v, null, created) ? created : points.get(v);
+        }
+        return point;
+    }
+
+    /**
+     * Returns the latitude of the given vertex.
+     *
+     * @param v the vertex id.
+     * @return the latitude of the given vertex.
+     */
+    public double lat(int v) {
+        return lats.get(v);
+    }
+
+    /**
+     * Returns the longitude of the given vertex.
+     *
+     * @param v the vertex id.
+     * @return the longitude of the given vertex.
+     */
+    public double lon(int v) {
+        return lons.get(v);
+    }
+
+    /**
+     * Returns an unmodifiable list view of all vertex locations, indexed by vertex id.
+     *
+     * @return an unmodifiable list view of all vertex locations.
+     */
+    public List<Point> points() {
+        return new PointList();
+    }
+
+    /**
+     * Returns the id of the first outgoing edge of the given vertex.
+     *
+     * @param v the vertex id.
+     * @return the id of the first outgoing edge of the given vertex.
+     */
+    public int begin(int v) {
+        return offsets.get(v);
+    }
+
+    /**
+     * Returns one past the id of the last outgoing edge of the given vertex.
+     *
+     * @param v the vertex id.
+     * @return one past the id of the last outgoing edge of the given vertex.
+     */
+    public int end(int v) {
+        return offsets.get(v + 1);
+    }
+
+    /**
+     * Returns the destination vertex id of the given edge.
+     *
+     * @param e the edge id.
+     * @return the destination vertex id of the given edge.
+     */
+    public int target(int e) {
+        return targets.get(e);
+    }
+
+    /**
+     * Returns the weight of the given edge.
+     *
+     * @param e the edge id.
+     * @return the weight of the given edge.
+     */
+    public float weight(int e) {
+        return weights.get(e);
+    }
+
+    /**
+     * Returns the open-addressing location index, for writing snapshots.
+     */
+    IntBuffer index() {
+        return index.duplicate();
+    }
+
+    /**
+     * Returns the reverse network, which has an edge from v to u for every edge from u to v in this network. Vertex
+     * ids are the same in both networks.
+     *
+     * @return the reverse network.
+     */
+    public RoadNetwork reverse() {
+        Builder builder = new Builder(context);
+        for (int v = 0; v < size(); v += 1) {
+            builder.vertex(lat(v), lon(v));
+        }
+        for (int v = 0; v < size(); v += 1) {
+            for (int e = begin(v); e < end(v); e += 1) {
+                builder.addEdge(target(e), v, weight(e));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the vertices of the largest strongly connected component: the largest set of vertices that can all reach
+     * each other. Vertices outside it belong to disconnected fragments, from which most of the network is unreachable.
+     *
+     * @return the ids of the vertices in the largest strongly connected component.
+     */
+    public BitSet largestComponent() {
+        // Kosaraju's algorithm: order vertices by finishing time, then search the reverse network in reverse order.
+        int n = size();
+        int[] order = new int[n];
+        int finished = 0;
+        int[] stack = new int[n];
+        int[] cursor = new int[n];
+        boolean[] visited = new boolean[n];
+        for (int root = 0; root < n; root += 1) {
+            if (visited[root]) {
+                continue;
+            }
+            visited[root] = true;
+            cursor[root] = begin(root);
+            int top = 0;
+            stack[top] = root;
+            while (top >= 0) {
+                int v = stack[top];
+                if (cursor[v] < end(v)) {
+                    int w = target(cursor[v]);
+                    cursor[v] += 1;
+                    if (!visited[w]) {
+                        visited[w] = true;
+                        cursor[w] = begin(w);
+                        top += 1;
+                        stack[top] = w;
+                    }
+                } else {
+                    order[finished] = v;
+                    finished += 1;
+                    top -= 1;
+                }
+            }
+        }
+        RoadNetwork reverse = reverse();
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int largest = -1;
+        int largestSize = 0;
+        for (int i = n - 1; i >= 0; i -= 1) {
+            int root = order[i];
+            if (component[root] >= 0) {
+                continue;
+            }
+            component[root] = root;
+            int count = 0;
+            int top = 0;
+            stack[top] = root;
+            while (top >= 0) {
+                int v = stack[top];
+                top -= 1;
+                count += 1;
+                for (int e = reverse.begin(v); e < reverse.end(v); e += 1) {
+                    int w = reverse.target(e);
+                    if (component[w] < 0) {
+                        component[w] = root;
+                        top += 1;
+                        stack[top] = w;
+                    }
+                }
+            }
+            if (count > largestSize) {
+                largest = root;
+                largestSize = count;
+            }
+        }
+        BitSet result = new BitSet(n);
+        for (int v = 0; v < n; v += 1) {
+            if (component[v] == largest) {
+                result.set(v);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the spatial context used for edge weights and distance estimates.
+     */
+    SpatialContext context() {
+        return context;
+    }
+
+    /**
+     * Returns the number of bytes used by the CSR arrays and the location index, whether on or off the heap.
+     *
+     * @return the number of bytes used by this network.
+     */
+    public long memoryBytes() {
+        return 8L * (lats.limit() + lons.limit())
+                + 4L * (offsets.limit() + targets.limit() + weights.limit() + index.limit());
+    }
+
+    @Override
+    public List<Edge<Point>> neighbors(Point point) {
+        int v = id(point);
+        if (v < 0) {
+            return List.of();
+        }
+        return new EdgeList(v, point);
+    }
+
+    @Override
+    public double estimatedDistance(Point start, Point end) {
+        return context.calcDistance(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return "RoadNetwork{" +
+                "vertices=" + size() +
+                ", edges=" + edgeCount() +
+                '}';
+    }
+
+    /**
+     * Read-only {@link List} view of the outgoing edges of a single vertex; edges are created on access, and refer to
+     * the shared point of each vertex.
+     */
+    private class EdgeList extends AbstractList<Edge<Point>> implements RandomAccess {
+        private final int v;
+        private final Point from;
+
+        EdgeList(int v, Point from) {
+            this.v = v;
+            this.from = from;
+        }
+
+        @Override
+        public Edge<Point> get(int i) {
+            int e = begin(v) + i;
+            if (i < 0 || e >= end(v)) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+            }
+            return new Edge<>(from, point(target(e)), weight(e));
+        }
+
+        @Override
+        public int size() {
+            return end(v) - begin(v);
+        }
+    }
+
+    /**
+     * Read-only {@link List} view of the vertex locations.
+     */
+    private class PointList extends AbstractList<Point> implements RandomAccess {
+        @Override
+        public Point get(int v) {
+            return point(v);
+        }
+
+        @Override
+        public int size() {
+            return RoadNetwork.this.size();
+        }
+    }
+
+    /**
+     * Returns a power-of-two hash table size with a load factor of at most 1/2.
+     */
+    private static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(n, 1) * 2 - 1) * 2;
+    }
+
+    /**
+     * Returns the hash code of a location for the open-addressing location index.
+     */
+    private static int hash(double lat, double lon) {
+        long bits = Double.doubleToLongBits(lon) * 31 + Double.doubleToLongBits(lat);
+        int hash = (int) (bits ^ (bits >>> 32));
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the slot in the open-addressing table that holds the given location or the empty slot where it belongs.
+     * Relies on the table never being full.
+     */
+    private static int slot(int[] table, double[] lats, double[] lons, double lat, double lon) {
+        int mask = table.length - 1;
+        int slot = hash(lat, lon) & mask;
+        while (table[slot] >= 0 && (lats[table[slot]] != lat || lons[table[slot]] != lon)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns a new open-addressing location index for the given vertex locations.
+     */
+    private static int[] indexOf(double[] lats, double[] lons) {
+        int[] table = new int[tableSize(lats.length)];
+        Arrays.fill(table, -1);
+        for (int v = 0; v < lats.length; v += 1) {
+            table[slot(table, lats, lons, lats[v], lons[v])] = v;
+        }
+        return table;
+    }
+
+    /**
+     * Incrementally assembles a {@link RoadNetwork} from vertex locations and weighted edges. Duplicate edges are
+     * removed when the network is built.
+     */
+    public static class Builder {
+        private final SpatialContext context;
+        private double[] lats;
+        private double[] lons;
+        private int[] index;
+        private int size;
+        private int[] from;
+        private int[] to;
+        private float[] weight;
+        private int edges;
+
+        /**
+         * Constructs an empty builder.
+         *
+         * @param context the spatial context used for edge weights and distance estimates.
+         */
+        public Builder(SpatialContext context) {
+            this.context = context;
+            this.lats = new double[16];
+            this.lons = new double[16];
+            this.index = new int[tableSize(lats.length)];
+            Arrays.fill(index, -1);
+            this.from = new int[16];
+            this.to = new int[16];
+            this.weight = new float[16];
+        }
+
+        /**
+         * Returns the id of the vertex at the given location, adding a new vertex if necessary.
+         *
+         * @param point the location of the vertex.
+         * @return the id of the vertex at the given location.
+         */
+        public int vertex(Point point) {
+            return vertex(point.getLat(), point.getLon());
+        }
+
+        /**
+         * Returns the id of the vertex at the given location, adding a new vertex if necessary.
+         *
+         * @param lat the latitude of the vertex.
+         * @param lon the longitude of the vertex.
+         * @return the id of the vertex at the given location.
+         */
+        public int vertex(double lat, double lon) {
+            int slot = slot(index, lats, lons, lat, lon);
+            if (index[slot] >= 0) {
+                return index[slot];
+            }
+            if (size == lats.length) {
+                lats = Arrays.copyOf(lats, size * 2);
+                lons = Arrays.copyOf(lons, size * 2);
+                index = new int[tableSize(lats.length)];
+                Arrays.fill(index, -1);
+                for (int v = 0; v < size; v += 1) {
+                    index[slot(index, lats, lons, lats[v], lons[v])] = v;
+                }
+                slot = slot(index, lats, lons, lat, lon);
+            }
+            lats[size] = lat;
+            lons[size] = lon;
+            index[slot] = size;
+            size += 1;
+            return size - 1;
+        }
+
+        /**
+         * Adds a directed edge between the given locations, using distance as the weight.
+         *
+         * @param from the originating location.
+         * @param to   the destination location.
+         */
+        public void addEdge(Point from, Point to) {
+            addEdge(vertex(from), vertex(to), (float) context.calcDistance(from, to));
+        }
+
+        /**
+         * Adds a directed edge between the given vertex ids.
+         *
+         * @param from   the originating vertex id.
+         * @param to     the destination vertex id.
+         * @param weight the weight of the edge.
+         */
+        public void addEdge(int from, int to, float weight) {
+            if (edges == this.from.length) {
+                this.from = Arrays.copyOf(this.from, edges * 2);
+                this.to = Arrays.copyOf(this.to, edges * 2);
+                this.weight = Arrays.copyOf(this.weight, edges * 2);
+            }
+            this.from[edges] = from;
+            this.to[edges] = to;
+            this.weight[edges] = weight;
+            edges += 1;
+        }
+
+        /**
+         * Returns a new {@link RoadNetwork} containing the vertices and edges added so far.
+         *
+         * @return a new {@link RoadNetwork}.
+         */
+        public RoadNetwork build() {
+            // Counting sort the edges by their originating vertex.
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edges; e += 1) {
+                offsets[from[e] + 1] += 1;
+            }
+            for (int v = 0; v < size; v += 1) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] targets = new int[edges];
+            float[] weights = new float[edges];
+            for (int e = 0; e < edges; e += 1) {
+                int i = next[from[e]]++;
+                targets[i] = to[e];
+                weights[i] = weight[e];
+            }
+            // Sort each row by target and drop duplicate edges in place.
+            int count = 0;
+            int rowStart = 0;
+            for (int v = 0; v < size; v += 1) {
+                int rowEnd = offsets[v + 1];
+                sortRow(targets, weights, rowStart, rowEnd);
+                offsets[v] = count;
+                for (int e = rowStart; e < rowEnd; e += 1) {
+                    boolean duplicate = count > offsets[v]
+                            && targets[count - 1] == targets[e] && weights[count - 1] == weights[e];
+                    if (!duplicate) {
+                        targets[count] = targets[e];
+                        weights[count] = weights[e];
+                        count += 1;
+                    }
+                }
+                rowStart = rowEnd;
+            }
+            offsets[size] = count;
+            return new RoadNetwork(context, Arrays.copyOf(lats, size), Arrays.copyOf(lons, size), offsets,
+                    Arrays.copyOf(targets, count), Arrays.copyOf(weights, count));
+        }
+
+        /**
+         * Insertion sorts a single CSR row by target; rows in street networks are only a few edges long.
+         */
+        private static void sortRow(int[] targets, float[] weights, int lo, int hi) {
+            for (int i = lo + 1; i < hi; i += 1) {
+                int t = targets[i];
+                float w = weights[i];
+                int j = i - 1;
+                while (j >= lo && (targets[j] > t || (targets[j] == t && weights[j] > w))) {
+                    targets[j + 1] = targets[j];
+                    weights[j + 1] = weights[j];
+                    j -= 1;
+                }
+                targets[j + 1] = t;
+                weights[j + 1] = w;
+            }
+        }
+    }
+}
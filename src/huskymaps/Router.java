@@ -0,0 +1,23 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.List;
+
+/**
+ * Computes shortest routes between vertices of a {@link MapGraph}. Implementations must be safe to call from
+ * concurrent request handlers.
+ *
+ * @see MapServer
+ */
+@FunctionalInterface
+public interface Router {
+    /**
+     * Returns the shortest route from the start vertex to the goal vertex.
+     *
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     * @return a list of locations representing the route.
+     */
+    List<Point> route(Point start, Point goal);
+}
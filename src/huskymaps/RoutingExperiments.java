@@ -0,0 +1,189 @@
+package huskymaps;
+
+import graphs.AStarGraph;
+import graphs.AStarSolver;
+import graphs.BidirectionalAStarSolver;
+import graphs.Edge;
+import graphs.ReusableAStarSolver;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+/**
+ * Run timing experiments comparing routing implementations on random start and goal pairs, reporting the average
+ * runtime, the average number of vertices settled per query, and the number of routes whose length differs from
+ * the exhaustive {@link AStarSolver}. Pass an OSM file path as the first argument to run against a larger extract.
+ */
+class RoutingExperiments {
+    /**
+     * The default OpenStreetMap XML file path.
+     */
+    private static final String OSM_PATH = "data/huskymaps/seattle-tiny.osm.gz";
+    /**
+     * The place-importance TSV data file path.
+     */
+    private static final String PLACES_PATH = "data/huskymaps/places.tsv.gz";
+    /**
+     * Number of random start and goal pairs. Making this smaller means experiments run faster.
+     */
+    private static final int NUM_TRIALS = 200;
+    /**
+     * Seed for choosing random start and goal pairs so that every implementation sees the same queries.
+     */
+    private static final long SEED = 373;
+    /**
+     * Number of landmarks for the ALT heuristic.
+     */
+    private static final int NUM_LANDMARKS = 16;
+    /**
+     * Relative error tolerance when comparing route lengths.
+     */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Result of a single routing query: the route and the number of vertices settled to find it.
+     */
+    static class Result {
+        final List<Point> route;
+        final int settled;
+
+        Result(List<Point> route, int settled) {
+            this.route = route;
+            this.settled = settled;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String osmPath = args.length > 0 ? args[0] : OSM_PATH;
+        MapGraph map = new MapGraph(osmPath, PLACES_PATH, SpatialContext.GEO, MapGraph.Storage.CSR);
+        RoadNetwork network = map.network();
+        System.out.println(network + " loaded from " + osmPath);
+        RoadNetwork reverse = network.reverse();
+        long buildStart = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(network);
+        System.out.printf("%s built in %.3f s%n", ch, (System.nanoTime() - buildStart) / 1e9);
+        ContractionHierarchy.Query chQuery = ch.query();
+        long simplifyStart = System.nanoTime();
+        SimplifiedNetwork simplified = SimplifiedNetwork.build(network);
+        System.out.printf("%s built in %.3f s%n", simplified, (System.nanoTime() - simplifyStart) / 1e9);
+        SimplifiedNetwork.Query simplifiedQuery = simplified.query();
+        Map<LandmarkHeuristic.Selection, ReusableAStarSolver<Point>> alt = new LinkedHashMap<>();
+        for (LandmarkHeuristic.Selection selection : LandmarkHeuristic.Selection.values()) {
+            long altStart = System.nanoTime();
+            LandmarkHeuristic heuristic = new LandmarkHeuristic(network, NUM_LANDMARKS, selection, SEED);
+            System.out.printf("%s built in %.3f s%n", heuristic, (System.nanoTime() - altStart) / 1e9);
+            alt.put(selection, new ReusableAStarSolver<>(heuristic));
+        }
+        AStarGraph<Point> dijkstra = new AStarGraph<>() {
+            @Override
+            public List<Edge<Point>> neighbors(Point vertex) {
+                return network.neighbors(vertex);
+            }
+
+            @Override
+            public double estimatedDistance(Point start, Point end) {
+                return 0;
+            }
+        };
+
+        Random random = new Random(SEED);
+        List<Point[]> queries = new ArrayList<>(NUM_TRIALS);
+        for (int i = 0; i < NUM_TRIALS; i += 1) {
+            queries.add(new Point[]{
+                    network.point(random.nextInt(network.size())),
+                    network.point(random.nextInt(network.size()))
+            });
+        }
+
+        // Testing implementations.
+        ReusableAStarSolver<Point> reusable = new ReusableAStarSolver<>(map);
+        Map<String, BiFunction<Point, Point, Result>> implementations = new LinkedHashMap<>();
+        implementations.put("AStarSolver (exhaustive)", (start, goal) -> {
+            AStarSolver<Point> solver = new AStarSolver<>(map, start, goal, false);
+            return new Result(solver.solution(), solver.settledCount());
+        });
+        implementations.put("AStarSolver", (start, goal) -> {
+            AStarSolver<Point> solver = new AStarSolver<>(map, start, goal);
+            return new Result(solver.solution(), solver.settledCount());
+        });
+        implementations.put("ReusableAStarSolver", (start, goal) -> {
+            List<Point> route = reusable.solution(start, goal);
+            return new Result(route, reusable.settledCount());
+        });
+        implementations.put("BidirectionalAStarSolver", (start, goal) -> {
+            BidirectionalAStarSolver<Point> solver = new BidirectionalAStarSolver<>(network, reverse, start, goal);
+            return new Result(solver.solution(), solver.settledCount());
+        });
+        implementations.put("BidirectionalAStarSolver (Dijkstra)", (start, goal) -> {
+            BidirectionalAStarSolver<Point> solver = new BidirectionalAStarSolver<>(dijkstra, reverse, start, goal);
+            return new Result(solver.solution(), solver.settledCount());
+        });
+        for (LandmarkHeuristic.Selection selection : alt.keySet()) {
+            ReusableAStarSolver<Point> solver = alt.get(selection);
+            implementations.put("ReusableAStarSolver (ALT " + selection + ")", (start, goal) -> {
+                List<Point> route = solver.solution(start, goal);
+                return new Result(route, solver.settledCount());
+            });
+        }
+        implementations.put("SimplifiedNetwork", (start, goal) -> {
+            List<Point> route = simplifiedQuery.route(start, goal);
+            return new Result(route, simplifiedQuery.settledCount());
+        });
+        implementations.put("ContractionHierarchy", (start, goal) -> {
+            List<Point> route = chQuery.route(start, goal);
+            return new Result(route, chQuery.settledCount());
+        });
+
+        // Reference route lengths.
+        double[] expected = new double[queries.size()];
+        for (int i = 0; i < queries.size(); i += 1) {
+            Point[] query = queries.get(i);
+            expected[i] = length(network, new AStarSolver<>(network, query[0], query[1], false).solution());
+        }
+
+        for (String name : implementations.keySet()) {
+            BiFunction<Point, Point, Result> implementation = implementations.get(name);
+            long totalSettled = 0;
+            long totalTime = 0;
+            int mismatches = 0;
+            for (int i = 0; i < queries.size(); i += 1) {
+                Point[] query = queries.get(i);
+                long start = System.nanoTime();
+                Result result = implementation.apply(query[0], query[1]);
+                totalTime += System.nanoTime() - start;
+                totalSettled += result.settled;
+                if (Math.abs(length(network, result.route) - expected[i]) > EPSILON * Math.max(1, expected[i])) {
+                    mismatches += 1;
+                }
+            }
+            System.out.printf("%-40s %12.6f s/query %12.1f settled/query %6d mismatches%n", name,
+                    (double) totalTime / 1_000_000_000 / queries.size(), (double) totalSettled / queries.size(),
+                    mismatches);
+        }
+    }
+
+    /**
+     * Returns the total edge weight along the route, or infinity if consecutive vertices are not adjacent.
+     */
+    static double length(RoadNetwork network, List<Point> route) {
+        double length = 0;
+        for (int i = 1; i < route.size(); i += 1) {
+            int from = network.id(route.get(i - 1));
+            int to = network.id(route.get(i));
+            double weight = Double.POSITIVE_INFINITY;
+            for (int e = network.begin(from); e < network.end(from); e += 1) {
+                if (network.target(e) == to) {
+                    weight = Math.min(weight, network.weight(e));
+                }
+            }
+            length += weight;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,79 @@
+package huskymaps;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable searches, such as {@link OneToManySearch} or {@link ContractionHierarchy.Query} instances.
+ * Each search holds several vertex-sized tables, so searches are shared by whichever threads need them rather than tied
+ * to any thread, and at most a fixed number exist at once: callers beyond that wait for a search to be returned.
+ *
+ * @param <S> the type of the searches.
+ * @see OneToManySearch
+ * @see DistanceMatrix
+ */
+public class SearchPool<S> {
+    /**
+     * Creates each new search.
+     */
+    private final Supplier<? extends S> factory;
+    /**
+     * Permits for the searches that may be in use at once.
+     */
+    private final Semaphore available;
+    /**
+     * Idle searches, created on first use.
+     */
+    private final ConcurrentLinkedQueue<S> idle;
+
+    /**
+     * Constructs a new empty pool.
+     *
+     * @param factory creates each new search.
+     * @param size    the maximum number of searches.
+     */
+    public SearchPool(Supplier<? extends S> factory, int size) {
+        this.factory = factory;
+        this.available = new Semaphore(size);
+        this.idle = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Returns the result of applying the function to a search borrowed from this pool, waiting for one if every search
+     * is in use.
+     *
+     * @param function the function, which must not keep the search after it returns.
+     * @param <V>      the type of the result.
+     * @return the result of the function.
+     * @throws InterruptedIOException if interrupted while waiting for a search.
+     */
+    public <V> V apply(Function<? super S, V> function) throws InterruptedIOException {
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a search");
+        }
+        S search = idle.poll();
+        if (search == null) {
+            search = factory.get();
+        }
+        try {
+            return function.apply(search);
+        } finally {
+            idle.add(search);
+            available.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SearchPool{" +
+                "idle=" + idle.size() +
+                ", available=" + available.availablePermits() +
+                '}';
+    }
+}
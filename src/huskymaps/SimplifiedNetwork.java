@@ -0,0 +1,591 @@
+package huskymaps;
+
+import minpq.IntMinPQ;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Simplified view of a {@link RoadNetwork} for routing, in which chains of degree-2 shape points are collapsed into
+ * single weighted edges between junctions. OSM ways contribute one vertex per node reference, so most street vertices
+ * only continue a road between their two neighbors; searches over the simplified core settle junctions only, and
+ * every core edge keeps the chain of street vertices it replaces so that routes are unpacked into the same street
+ * vertices as a search over the full network.
+ * <p>
+ * A vertex is collapsed if it has exactly two distinct neighbors, each joined to it by edges in both directions.
+ * Cycles made only of such vertices keep one of them as a junction. Routes may start or end anywhere, including
+ * inside a chain, in which case the search starts from (or ends at) both ends of the chain.
+ *
+ * @see RoadNetwork
+ * @see Query
+ */
+public class SimplifiedNetwork {
+    private final RoadNetwork network;
+    private final SpatialContext context;
+    /**
+     * The street vertex id of each core vertex.
+     */
+    private final int[] junctions;
+    /**
+     * The core vertex id of each street vertex, or -1 for vertices inside a chain.
+     */
+    private final int[] coreId;
+    /**
+     * The CSR row offsets, destination core vertex and weight of each core edge.
+     */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /**
+     * The core vertex that each core edge leaves from, for walking routes backward.
+     */
+    private final int[] edgeFrom;
+    /**
+     * The chain replaced by each core edge, or -1 for street edges between two junctions.
+     */
+    private final int[] edgeChain;
+    /**
+     * True for core edges that traverse their chain from its last vertex to its first.
+     */
+    private final boolean[] edgeReversed;
+    /**
+     * The street vertices of each chain, from one junction to the other, are stored at
+     * {@code chainVertices[chainOffsets[c]..chainOffsets[c + 1]-1]}.
+     */
+    private final int[] chainOffsets;
+    private final int[] chainVertices;
+    /**
+     * The distance from the first vertex of each chain to each of its vertices, indexed like the chain vertices.
+     */
+    private final double[] forward;
+    /**
+     * The distance from each vertex of each chain back to its first vertex, indexed like the chain vertices.
+     */
+    private final double[] backward;
+    /**
+     * The chain containing each street vertex inside a chain, or -1 for junctions.
+     */
+    private final int[] chainOf;
+    /**
+     * The index into the chain vertices of each street vertex inside a chain.
+     */
+    private final int[] positionOf;
+
+    private SimplifiedNetwork(RoadNetwork network, int[] junctions, int[] coreId, int[] offsets, int[] targets,
+                              double[] weights, int[] edgeFrom, int[] edgeChain, boolean[] edgeReversed,
+                              int[] chainOffsets, int[] chainVertices, double[] forward, double[] backward,
+                              int[] chainOf, int[] positionOf) {
+        this.network = network;
+        this.context = network.context();
+        this.junctions = junctions;
+        this.coreId = coreId;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.edgeFrom = edgeFrom;
+        this.edgeChain = edgeChain;
+        this.edgeReversed = edgeReversed;
+        this.chainOffsets = chainOffsets;
+        this.chainVertices = chainVertices;
+        this.forward = forward;
+        this.backward = backward;
+        this.chainOf = chainOf;
+        this.positionOf = positionOf;
+    }
+
+    /**
+     * Returns a new simplified network that collapses every chain of degree-2 vertices in the given network.
+     *
+     * @param network the street network.
+     * @return a new simplified network for the street network.
+     */
+    public static SimplifiedNetwork build(RoadNetwork network) {
+        int n = network.size();
+        // Find the distinct sources of the edges into each vertex, stopping after three.
+        int[] firstSource = new int[n];
+        int[] secondSource = new int[n];
+        int[] sourceCount = new int[n];
+        for (int u = 0; u < n; u += 1) {
+            for (int e = network.begin(u); e < network.end(u); e += 1) {
+                int v = network.target(e);
+                if (sourceCount[v] == 0) {
+                    firstSource[v] = u;
+                    sourceCount[v] = 1;
+                } else if (sourceCount[v] == 1 && firstSource[v] != u) {
+                    secondSource[v] = u;
+                    sourceCount[v] = 2;
+                } else if (sourceCount[v] == 2 && firstSource[v] != u && secondSource[v] != u) {
+                    sourceCount[v] = 3;
+                }
+            }
+        }
+        // Rows are sorted by target, so a vertex with two distinct targets has them at the start and end of its row.
+        boolean[] junction = new boolean[n];
+        for (int v = 0; v < n; v += 1) {
+            junction[v] = true;
+            if (sourceCount[v] != 2 || network.end(v) - network.begin(v) < 2) {
+                continue;
+            }
+            int first = network.target(network.begin(v));
+            int last = network.target(network.end(v) - 1);
+            boolean twoTargets = first != last && first != v && last != v;
+            for (int e = network.begin(v); e < network.end(v) && twoTargets; e += 1) {
+                twoTargets = network.target(e) == first || network.target(e) == last;
+            }
+            boolean sameSources = (firstSource[v] == first && secondSource[v] == last)
+                    || (firstSource[v] == last && secondSource[v] == first);
+            junction[v] = !(twoTargets && sameSources);
+        }
+
+        // Walk each chain from a junction, then break the remaining cycles at an arbitrary vertex.
+        int[] chainOf = new int[n];
+        Arrays.fill(chainOf, -1);
+        int[] positionOf = new int[n];
+        IntArray chainOffsets = new IntArray();
+        IntArray chainVertices = new IntArray();
+        chainOffsets.add(0);
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (int a = 0; a < n; a += 1) {
+                if (pass == 1 && !junction[a] && chainOf[a] < 0) {
+                    junction[a] = true;
+                } else if (!junction[a]) {
+                    continue;
+                }
+                for (int e = network.begin(a); e < network.end(a); e += 1) {
+                    int first = network.target(e);
+                    if (junction[first] || chainOf[first] >= 0) {
+                        continue;
+                    }
+                    int chain = chainOffsets.size - 1;
+                    chainVertices.add(a);
+                    int prev = a;
+                    int v = first;
+                    while (!junction[v]) {
+                        chainOf[v] = chain;
+                        positionOf[v] = chainVertices.size;
+                        chainVertices.add(v);
+                        int next = network.target(network.begin(v));
+                        if (next == prev) {
+                            next = network.target(network.end(v) - 1);
+                        }
+                        prev = v;
+                        v = next;
+                    }
+                    chainVertices.add(v);
+                    chainOffsets.add(chainVertices.size);
+                }
+            }
+        }
+        double[] forward = new double[chainVertices.size];
+        double[] backward = new double[chainVertices.size];
+        for (int c = 0; c + 1 < chainOffsets.size; c += 1) {
+            for (int i = chainOffsets.items[c] + 1; i < chainOffsets.items[c + 1]; i += 1) {
+                int u = chainVertices.items[i - 1];
+                int v = chainVertices.items[i];
+                forward[i] = forward[i - 1] + weight(network, u, v);
+                backward[i] = backward[i - 1] + weight(network, v, u);
+            }
+        }
+
+        // Number the junctions and add core edges: street edges between junctions and both directions of each chain.
+        int[] coreId = new int[n];
+        int size = 0;
+        for (int v = 0; v < n; v += 1) {
+            coreId[v] = junction[v] ? size++ : -1;
+        }
+        int[] junctions = new int[size];
+        for (int v = 0; v < n; v += 1) {
+            if (junction[v]) {
+                junctions[coreId[v]] = v;
+            }
+        }
+        IntArray from = new IntArray();
+        IntArray to = new IntArray();
+        // Each core edge is either a street edge id or the negated chain id minus one.
+        IntArray sources = new IntArray();
+        for (int v = 0; v < n; v += 1) {
+            for (int e = network.begin(v); e < network.end(v); e += 1) {
+                if (junction[v] && junction[network.target(e)]) {
+                    from.add(coreId[v]);
+                    to.add(coreId[network.target(e)]);
+                    sources.add(e);
+                }
+            }
+        }
+        for (int c = 0; c + 1 < chainOffsets.size; c += 1) {
+            int a = chainVertices.items[chainOffsets.items[c]];
+            int b = chainVertices.items[chainOffsets.items[c + 1] - 1];
+            if (a != b) {
+                // Chains that return to their own junction never lie on a shortest route between junctions.
+                from.add(coreId[a]);
+                to.add(coreId[b]);
+                sources.add(-c - 1);
+                from.add(coreId[b]);
+                to.add(coreId[a]);
+                sources.add(-c - 1);
+            }
+        }
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < from.size; i += 1) {
+            offsets[from.items[i] + 1] += 1;
+        }
+        for (int v = 0; v < size; v += 1) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] next = Arrays.copyOf(offsets, size);
+        int[] targets = new int[from.size];
+        double[] weights = new double[from.size];
+        int[] edgeFrom = new int[from.size];
+        int[] edgeChain = new int[from.size];
+        boolean[] edgeReversed = new boolean[from.size];
+        // The first core edge added for each chain runs forward and the second runs backward.
+        boolean[] seen = new boolean[chainOffsets.size];
+        for (int i = 0; i < from.size; i += 1) {
+            int e = next[from.items[i]]++;
+            int c = sources.items[i] < 0 ? -sources.items[i] - 1 : -1;
+            targets[e] = to.items[i];
+            edgeFrom[e] = from.items[i];
+            edgeChain[e] = c;
+            if (c < 0) {
+                weights[e] = network.weight(sources.items[i]);
+            } else {
+                edgeReversed[e] = seen[c];
+                int last = chainOffsets.items[c + 1] - 1;
+                weights[e] = seen[c] ? backward[last] : forward[last];
+                seen[c] = true;
+            }
+        }
+        return new SimplifiedNetwork(network, junctions, coreId, offsets, targets, weights, edgeFrom, edgeChain,
+                edgeReversed, Arrays.copyOf(chainOffsets.items, chainOffsets.size), Arrays.copyOf(chainVertices.items,
+                chainVertices.size), forward, backward, chainOf, positionOf);
+    }
+
+    /**
+     * Returns the smallest weight of the street edges from u to v.
+     */
+    private static double weight(RoadNetwork network, int u, int v) {
+        double weight = Double.POSITIVE_INFINITY;
+        for (int e = network.begin(u); e < network.end(u); e += 1) {
+            if (network.target(e) == v) {
+                weight = Math.min(weight, network.weight(e));
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the street network of this simplified network.
+     *
+     * @return the street network.
+     */
+    public RoadNetwork network() {
+        return network;
+    }
+
+    /**
+     * Returns the number of junctions, which are the vertices searched by each query.
+     *
+     * @return the number of junctions.
+     */
+    public int size() {
+        return junctions.length;
+    }
+
+    /**
+     * Returns the number of directed edges between junctions.
+     *
+     * @return the number of directed edges between junctions.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the number of collapsed chains.
+     *
+     * @return the number of collapsed chains.
+     */
+    public int chainCount() {
+        return chainOffsets.length - 1;
+    }
+
+    /**
+     * Returns a new query object for searching this network.
+     *
+     * @return a new query object.
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    @Override
+    public String toString() {
+        return "SimplifiedNetwork{" +
+                "vertices=" + size() +
+                ", edges=" + edgeCount() +
+                ", chains=" + chainCount() +
+                '}';
+    }
+
+    /**
+     * Reusable A* search over the junctions of the simplified network. Search state is allocated once and reset in
+     * time proportional to the number of junctions touched by the previous query. Instances are not thread-safe.
+     */
+    public class Query {
+        private final double[] distTo;
+        /**
+         * The core edge into each reached junction on the shortest known route, or -1 for a start junction.
+         */
+        private final int[] edgeTo;
+        private final IntMinPQ pq;
+        private int[] touched;
+        private int touchedCount;
+        private double distance;
+        private int settledCount;
+
+        private Query() {
+            distTo = new double[junctions.length];
+            Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+            edgeTo = new int[junctions.length];
+            pq = new IntMinPQ(junctions.length);
+            touched = new int[16];
+        }
+
+        /**
+         * Returns the shortest route between the given street vertices as a list of street vertices.
+         *
+         * @param start the start vertex.
+         * @param goal  the goal vertex.
+         * @return a list of locations representing the route.
+         * @throws CancellationException if the current thread is interrupted during the search.
+         */
+        public List<Point> route(Point start, Point goal) {
+            int[] path = route(network.id(start), network.id(goal));
+            if (path.length == 0) {
+                return new ArrayList<>(List.of(goal));
+            }
+            List<Point> result = new ArrayList<>(path.length);
+            for (int v : path) {
+                result.add(network.point(v));
+            }
+            return result;
+        }
+
+        /**
+         * Returns the shortest route between the given street vertex ids, or an empty array if the goal is
+         * unreachable.
+         *
+         * @param s the start vertex id.
+         * @param t the goal vertex id.
+         * @return the street vertex ids along the shortest route.
+         * @throws CancellationException if the current thread is interrupted during the search.
+         */
+        public int[] route(int s, int t) {
+            reset();
+            distance = Double.POSITIVE_INFINITY;
+            settledCount = 0;
+            if (s < 0 || t < 0) {
+                return new int[0];
+            } else if (s == t) {
+                distance = 0;
+                return new int[]{s};
+            }
+            // A route within a single chain never reaches a junction.
+            int direct = -1;
+            if (chainOf[s] >= 0 && chainOf[s] == chainOf[t]) {
+                direct = chainOf[s];
+                distance = positionOf[s] < positionOf[t]
+                        ? forward[positionOf[t]] - forward[positionOf[s]]
+                        : backward[positionOf[s]] - backward[positionOf[t]];
+            }
+
+            // Start from each end of the chain containing s, or from s itself.
+            Point goal = network.point(t);
+            if (chainOf[s] < 0) {
+                start(coreId[s], 0, goal);
+            } else {
+                int c = chainOf[s];
+                int i = positionOf[s];
+                int last = chainOffsets[c + 1] - 1;
+                start(coreId[chainVertices[chainOffsets[c]]], backward[i], goal);
+                start(coreId[chainVertices[last]], forward[last] - forward[i], goal);
+            }
+            // End at either end of the chain containing t, or at t itself, with the remaining distance along the chain.
+            int firstTarget;
+            int lastTarget;
+            double firstRemaining;
+            double lastRemaining;
+            if (chainOf[t] < 0) {
+                firstTarget = coreId[t];
+                lastTarget = -1;
+                firstRemaining = 0;
+                lastRemaining = Double.POSITIVE_INFINITY;
+            } else {
+                int c = chainOf[t];
+                int j = positionOf[t];
+                int last = chainOffsets[c + 1] - 1;
+                firstTarget = coreId[chainVertices[chainOffsets[c]]];
+                lastTarget = coreId[chainVertices[last]];
+                firstRemaining = forward[j];
+                lastRemaining = backward[last] - backward[j];
+            }
+
+            int end = -1;
+            while (!pq.isEmpty() && pq.peekMinPriority() < distance) {
+                int from = pq.removeMin();
+                settledCount += 1;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("search interrupted");
+                }
+                if (from == firstTarget && distTo[from] + firstRemaining < distance) {
+                    distance = distTo[from] + firstRemaining;
+                    end = from;
+                }
+                if (from == lastTarget && distTo[from] + lastRemaining < distance) {
+                    distance = distTo[from] + lastRemaining;
+                    end = from;
+                }
+                for (int e = offsets[from]; e < offsets[from + 1]; e += 1) {
+                    int to = targets[e];
+                    double newDist = distTo[from] + weights[e];
+                    if (newDist < distTo[to]) {
+                        visit(to, newDist, e);
+                        pq.addOrChangePriority(to, newDist + estimate(to, goal));
+                    }
+                }
+            }
+            if (end < 0 && direct < 0) {
+                return new int[0];
+            }
+
+            IntArray path = new IntArray();
+            if (end < 0) {
+                // The direct route along the chain is shortest.
+                append(path, positionOf[s], positionOf[t]);
+                return Arrays.copyOf(path.items, path.size);
+            }
+            IntArray edges = new IntArray();
+            int first = end;
+            while (edgeTo[first] >= 0) {
+                edges.add(edgeTo[first]);
+                first = edgeFrom[edgeTo[first]];
+            }
+            if (chainOf[s] < 0) {
+                path.add(s);
+            } else {
+                int c = chainOf[s];
+                boolean toFirst = junctions[first] == chainVertices[chainOffsets[c]]
+                        && (junctions[first] != chainVertices[chainOffsets[c + 1] - 1]
+                        || backward[positionOf[s]] <= forward[chainOffsets[c + 1] - 1] - forward[positionOf[s]]);
+                append(path, positionOf[s], toFirst ? chainOffsets[c] : chainOffsets[c + 1] - 1);
+            }
+            for (int i = edges.size - 1; i >= 0; i -= 1) {
+                int e = edges.items[i];
+                int c = edgeChain[e];
+                if (c < 0) {
+                    path.add(junctions[targets[e]]);
+                } else if (edgeReversed[e]) {
+                    append(path, chainOffsets[c + 1] - 2, chainOffsets[c]);
+                } else {
+                    append(path, chainOffsets[c] + 1, chainOffsets[c + 1] - 1);
+                }
+            }
+            if (chainOf[t] >= 0) {
+                int c = chainOf[t];
+                boolean fromFirst = end == firstTarget && distTo[end] + firstRemaining == distance;
+                int j = positionOf[t];
+                if (fromFirst) {
+                    append(path, chainOffsets[c] + 1, j);
+                } else {
+                    append(path, chainOffsets[c + 1] - 2, j);
+                }
+            }
+            return Arrays.copyOf(path.items, path.size);
+        }
+
+        /**
+         * Returns the length of the route found by the most recent query, or infinity if there was none.
+         *
+         * @return the length of the most recent route.
+         */
+        public double distance() {
+            return distance;
+        }
+
+        /**
+         * Returns the number of junctions settled by the most recent query.
+         *
+         * @return the number of junctions settled by the most recent query.
+         */
+        public int settledCount() {
+            return settledCount;
+        }
+
+        /**
+         * Adds a start junction at the given distance from the start vertex.
+         */
+        private void start(int v, double dist, Point goal) {
+            if (dist < distTo[v]) {
+                visit(v, dist, -1);
+                pq.addOrChangePriority(v, dist + estimate(v, goal));
+            }
+        }
+
+        /**
+         * Returns a lower bound on the distance from the junction to the goal.
+         */
+        private double estimate(int v, Point goal) {
+            return context.calcDistance(goal, network.lon(junctions[v]), network.lat(junctions[v]));
+        }
+
+        private void visit(int v, double newDist, int e) {
+            if (distTo[v] == Double.POSITIVE_INFINITY) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount] = v;
+                touchedCount += 1;
+            }
+            distTo[v] = newDist;
+            edgeTo[v] = e;
+        }
+
+        private void reset() {
+            for (int i = 0; i < touchedCount; i += 1) {
+                distTo[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            pq.clear();
+        }
+    }
+
+    /**
+     * Appends the chain vertices from index i to index j (inclusive) of the chain vertex array, in either direction.
+     */
+    private void append(IntArray path, int i, int j) {
+        int step = i <= j ? 1 : -1;
+        for (int k = i; k != j + step; k += step) {
+            path.add(chainVertices[k]);
+        }
+    }
+
+    /**
+     * Growable array of {@code int} values.
+     */
+    private static class IntArray {
+        int[] items = new int[8];
+        int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = item;
+            size += 1;
+        }
+    }
+}
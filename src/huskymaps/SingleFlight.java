@@ -0,0 +1,121 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same key so that only one load per key is in flight at a time: the first caller
+ * runs the load and every caller that arrives before it finishes waits for and shares its result (or failure).
+ * Results are not retained after the load finishes, so this is meant to sit in front of a cache miss.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of loaded values.
+ * @see BoundedCache
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+    private final LongAdder loads;
+    private final LongAdder coalesced;
+
+    /**
+     * Loads a value, possibly failing with an {@link IOException}.
+     *
+     * @param <V> the type of the value.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * Returns the loaded value.
+         *
+         * @return the loaded value.
+         * @throws IOException if the value cannot be loaded.
+         */
+        V load() throws IOException;
+    }
+
+    /**
+     * Constructs a new instance with no loads in flight.
+     */
+    public SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.loads = new LongAdder();
+        this.coalesced = new LongAdder();
+    }
+
+    /**
+     * Returns the value for the key, running the loader unless a load of the same key is already in flight, in which
+     * case this waits for that load instead.
+     *
+     * @param key    the key.
+     * @param loader the loader for the value of the key.
+     * @return the loaded value.
+     * @throws IOException if the load failed.
+     */
+    public V get(K key, Loader<? extends V> loader) throws IOException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+        loads.increment();
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a coalesced load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Returns the number of loads that were run.
+     *
+     * @return the number of loads that were run.
+     */
+    public long loads() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of calls that waited for a load already in flight instead of running their own.
+     *
+     * @return the number of coalesced calls.
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{" +
+                "inFlight=" + inFlight.size() +
+                ", loads=" + loads() +
+                ", coalesced=" + coalesced() +
+                '}';
+    }
+}
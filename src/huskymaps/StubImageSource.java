@@ -0,0 +1,70 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.shape.Point;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ImageSource} for load testing without network access or map data. Each image is a flat color derived from
+ * the viewport with the viewport printed on it, returned after a fixed delay that stands in for a remote fetch.
+ *
+ * @see MapLoadExperiments
+ */
+public class StubImageSource implements ImageSource {
+    private final long latencyMillis;
+    private final LongAdder fetches;
+
+    /**
+     * Constructs a new stub image source.
+     *
+     * @param latencyMillis the delay before each image is returned, in milliseconds.
+     */
+    public StubImageSource(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.fetches = new LongAdder();
+    }
+
+    @Override
+    public BufferedImage image(Point center, int zoom, int width, int height, List<Point> markers)
+            throws IOException {
+        fetches.increment();
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while simulating a fetch");
+        }
+        String viewport = String.format("%f,%f,%d/%dx%d", center.getLon(), center.getLat(), zoom, width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(new Color(0x808080 | (viewport.hashCode() & 0x7f7f7f)));
+        g2d.fillRect(0, 0, width, height);
+        g2d.setColor(Color.BLACK);
+        g2d.drawString(viewport, 10, 20);
+        g2d.drawString(markers.size() + " markers", 10, 40);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Returns the number of images produced.
+     *
+     * @return the number of images produced.
+     */
+    public long fetches() {
+        return fetches.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StubImageSource{" +
+                "latencyMillis=" + latencyMillis +
+                ", fetches=" + fetches() +
+                '}';
+    }
+}
@@ -0,0 +1,194 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link ImageSource} that composes viewports from fixed-size square tiles fetched from another image source. Tiles
+ * lie on a grid quantized to whole tiles in the same linear projection as {@link MapServer}, so every viewport at a
+ * zoom level is covered by tiles shared with nearby viewports and panning reuses the cached tiles instead of fetching
+ * a new image. Each tile is fetched with a margin of extra pixels on every side and then cropped, so that a label near
+ * a tile edge is drawn whole in every tile it crosses rather than cut off at the seam. Tiles are cached decoded, and
+ * concurrent misses on the same tile share one fetch.
+ *
+ * @see BoundedCache
+ * @see SingleFlight
+ */
+public class TileLayer implements ImageSource {
+    /**
+     * The width and height of each tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+    /**
+     * Maximum number of tiles fetched concurrently for one viewport.
+     */
+    private static final int FETCH_THREADS = 8;
+
+    private final SpatialContext context;
+    private final ImageSource source;
+    /**
+     * The number of pixels fetched beyond each tile edge and cropped.
+     */
+    private final int margin;
+    /**
+     * Decoded tiles by zoom level, column and row.
+     */
+    private final BoundedCache<List<Integer>, BufferedImage> cache;
+    private final SingleFlight<List<Integer>, BufferedImage> fetches;
+    private final ExecutorService fetchers;
+
+    /**
+     * Constructs a new tile layer over the given image source.
+     *
+     * @param context  the spatial context for tile centers.
+     * @param source   the image source for individual tiles.
+     * @param margin   the number of pixels fetched beyond each tile edge and cropped, which should be at least the
+     *                 width of most labels drawn by the source.
+     * @param maxTiles the maximum number of cached tiles.
+     * @param maxBytes the maximum number of bytes used by cached tile rasters.
+     */
+    public TileLayer(SpatialContext context, ImageSource source, int margin, int maxTiles, long maxBytes) {
+        this.context = context;
+        this.source = source;
+        this.margin = margin;
+        this.cache = new BoundedCache<>(maxTiles, maxBytes,
+                tile -> (long) tile.getWidth() * tile.getHeight() * Integer.BYTES);
+        this.fetches = new SingleFlight<>();
+        this.fetchers = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "tile-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public BufferedImage image(Point center, int zoom, int width, int height, List<Point> markers)
+            throws IOException {
+        double lonDPP = MapServer.SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+        double latDPP = MapServer.SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+        // Position of the viewport's top-left corner in projected pixels, with y increasing southward.
+        double left = center.getLon() / lonDPP - width / 2.0;
+        double top = -center.getLat() / latDPP - height / 2.0;
+        int minColumn = (int) Math.floor(left / TILE_SIZE);
+        int maxColumn = (int) Math.floor((left + width) / TILE_SIZE);
+        int minRow = (int) Math.floor(top / TILE_SIZE);
+        int maxRow = (int) Math.floor((top + height) / TILE_SIZE);
+
+        List<List<Integer>> keys = new ArrayList<>();
+        List<Future<BufferedImage>> tiles = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row += 1) {
+            for (int column = minColumn; column <= maxColumn; column += 1) {
+                List<Integer> key = List.of(zoom, column, row);
+                keys.add(key);
+                tiles.add(fetchers.submit(() -> tile(key, lonDPP, latDPP)));
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        for (int i = 0; i < keys.size(); i += 1) {
+            int column = keys.get(i).get(1);
+            int row = keys.get(i).get(2);
+            // Flooring keeps adjacent tiles exactly TILE_SIZE pixels apart, so there are no seams.
+            g2d.drawImage(await(tiles.get(i)),
+                    (int) Math.floor(column * TILE_SIZE - left),
+                    (int) Math.floor(row * TILE_SIZE - top),
+                    TILE_SIZE, TILE_SIZE, null);
+        }
+        if (!markers.isEmpty()) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (Point marker : markers) {
+                MapRenderer.drawPin(g2d,
+                        (int) ((marker.getLon() - center.getLon()) / lonDPP) + width / 2,
+                        (int) ((center.getLat() - marker.getLat()) / latDPP) + height / 2);
+            }
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Returns the cached tile for the key, fetching it from the source if it is not cached.
+     */
+    private BufferedImage tile(List<Integer> key, double lonDPP, double latDPP) throws IOException {
+        BufferedImage tile = cache.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        return fetches.get(key, () -> {
+            BufferedImage cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int zoom = key.get(0);
+            double x = (key.get(1) + 0.5) * TILE_SIZE;
+            double y = (key.get(2) + 0.5) * TILE_SIZE;
+            Point tileCenter = context.getShapeFactory().pointLatLon(-y * latDPP, x * lonDPP);
+            BufferedImage fetched = source.image(tileCenter, zoom, TILE_SIZE + 2 * margin, TILE_SIZE + 2 * margin,
+                    List.of());
+            // Copy the crop so that the cache does not keep the margin's pixels.
+            BufferedImage cropped = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = cropped.createGraphics();
+            g2d.drawImage(fetched, -margin, -margin, null);
+            g2d.dispose();
+            cache.put(key, cropped);
+            return cropped;
+        });
+    }
+
+    private static BufferedImage await(Future<BufferedImage> tile) throws IOException {
+        try {
+            return tile.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while fetching tiles");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Returns the tile cache for monitoring its size and hit rate.
+     *
+     * @return the tile cache.
+     */
+    public BoundedCache<List<Integer>, BufferedImage> cache() {
+        return cache;
+    }
+
+    /**
+     * Returns the coalescer of concurrent tile fetches for monitoring.
+     *
+     * @return the coalescer of tile fetches.
+     */
+    public SingleFlight<List<Integer>, BufferedImage> fetches() {
+        return fetches;
+    }
+
+    @Override
+    public String toString() {
+        return "TileLayer{" +
+                "source=" + source +
+                ", margin=" + margin +
+                ", cache=" + cache +
+                ", fetches=" + fetches +
+                '}';
+    }
+}
@@ -0,0 +1,209 @@
+package minpq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Indexed binary heap of {@code int} items in the range {@code [0, capacity)} with {@code double} priority values.
+ * A primitive counterpart to {@link ExtrinsicMinPQ} for graph searches over dense integer vertex ids: no items or
+ * priorities are boxed, and {@link #clear()} runs in time proportional to the number of items in the heap.
+ *
+ * @see ExtrinsicMinPQ
+ * @see OptimizedHeapMinPQ
+ */
+public class IntMinPQ {
+    /**
+     * The heap of items, stored from index 1.
+     */
+    private final int[] heap;
+    /**
+     * The priority value of each item in the heap, indexed by item.
+     */
+    private final double[] priorities;
+    /**
+     * The heap index of each item, or 0 if the item is not in the heap.
+     */
+    private final int[] indexOf;
+    /**
+     * The number of elements in the heap.
+     */
+    private int size;
+
+    /**
+     * Constructs an empty instance for items in the range {@code [0, capacity)}.
+     *
+     * @param capacity one more than the largest item that may be added.
+     */
+    public IntMinPQ(int capacity) {
+        heap = new int[capacity + 1];
+        priorities = new double[capacity];
+        indexOf = new int[capacity];
+        size = 0;
+    }
+
+    /**
+     * Adds an item with the given priority value.
+     *
+     * @param item     the element to add.
+     * @param priority the priority value for the item.
+     * @throws IllegalArgumentException if item is already present.
+     */
+    public void add(int item, double priority) {
+        if (contains(item)) {
+            throw new IllegalArgumentException("Already contains " + item);
+        }
+        size += 1;
+        heap[size] = item;
+        indexOf[item] = size;
+        priorities[item] = priority;
+        swim(size);
+    }
+
+    /**
+     * Returns true if the given item is in this priority queue.
+     *
+     * @param item element to be checked for containment.
+     * @return true if the given item is in this priority queue.
+     */
+    public boolean contains(int item) {
+        return indexOf[item] != 0;
+    }
+
+    /**
+     * Returns the item with the minimum priority value.
+     *
+     * @return the item with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int peekMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return heap[1];
+    }
+
+    /**
+     * Returns the minimum priority value.
+     *
+     * @return the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public double peekMinPriority() {
+        return priorities[peekMin()];
+    }
+
+    /**
+     * Returns and removes the item with the minimum priority value.
+     *
+     * @return the item with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int removeMin() {
+        int min = peekMin();
+        swap(1, size);
+        size -= 1;
+        indexOf[min] = 0;
+        sink(1);
+        return min;
+    }
+
+    /**
+     * Updates the given items' associated priority value.
+     *
+     * @param item     the element whose associated priority value should be modified.
+     * @param priority the updated priority value.
+     * @throws NoSuchElementException if the item is not present.
+     */
+    public void changePriority(int item, double priority) {
+        if (!contains(item)) {
+            throw new NoSuchElementException("PQ does not contain " + item);
+        }
+        double oldPriority = priorities[item];
+        priorities[item] = priority;
+        if (priority < oldPriority) {
+            swim(indexOf[item]);
+        } else {
+            sink(indexOf[item]);
+        }
+    }
+
+    /**
+     * Adds the item with the given priority value, or updates its priority value if it is already present.
+     *
+     * @param item     the element to add or update.
+     * @param priority the priority value for the item.
+     */
+    public void addOrChangePriority(int item, double priority) {
+        if (contains(item)) {
+            changePriority(item, priority);
+        } else {
+            add(item, priority);
+        }
+    }
+
+    /**
+     * Removes all items from this priority queue.
+     */
+    public void clear() {
+        for (int i = 1; i <= size; i += 1) {
+            indexOf[heap[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the number of items in this priority queue.
+     *
+     * @return the number of elements in this priority queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this priority queue contains no items.
+     *
+     * @return true if this priority queue contains no items.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Swim the item at the given index until the heap invariant is satisfied.
+    private void swim(int index) {
+        while (index > 1 && priorities[heap[index / 2]] > priorities[heap[index]]) {
+            swap(index / 2, index);
+            index = index / 2;
+        }
+    }
+
+    // Sink the item at the given index until the heap invariant is satisfied.
+    private void sink(int index) {
+        while (2 * index <= size) {
+            int child = 2 * index;
+            if (child < size && priorities[heap[child]] > priorities[heap[child + 1]]) {
+                child += 1;
+            }
+            if (priorities[heap[index]] <= priorities[heap[child]]) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    // Swaps the items at the given heap indices i and j.
+    private void swap(int i, int j) {
+        int a = heap[i];
+        int b = heap[j];
+        heap[i] = b;
+        heap[j] = a;
+        indexOf[b] = i;
+        indexOf[a] = j;
+    }
+
+    @Override
+    public String toString() {
+        return "IntMinPQ" + Arrays.toString(Arrays.copyOfRange(heap, 1, size + 1));
+    }
+}